@@ -12,6 +12,11 @@ import edu.wpi.first.wpilibj.Filesystem;
 import edu.wpi.first.wpilibj.Threads;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.subsystems.drive.SparkOdometryThread;
+import frc.robot.util.SparkConfigService;
+import frc.robot.util.SparkFaultCounter;
+import frc.robot.util.SparkSetpointCache;
+import frc.robot.util.SparkStatusFrameBudget;
 import org.littletonrobotics.junction.LogFileUtil;
 import org.littletonrobotics.junction.LoggedRobot;
 import org.littletonrobotics.junction.Logger;
@@ -83,6 +88,13 @@ public class Robot extends LoggedRobot {
     // Instantiate our RobotContainer. This will perform all our button bindings,
     // and put our autonomous chooser on the dashboard.
     robotContainer = new RobotContainer();
+
+    // Wait for the Sparks configured by the subsystems, which run in parallel
+    SparkConfigService.getInstance().awaitCompletion();
+
+    // Start sampling odometry only now, so the first samples already see the drive encoders
+    // zeroed during configuration and the startup pose doesn't jump
+    SparkOdometryThread.getInstance().start();
   }
 
   /** This function is called periodically during all modes. */
@@ -101,6 +113,11 @@ public class Robot extends LoggedRobot {
     // the Command-based framework to work.
     CommandScheduler.getInstance().run();
 
+    // Apply status frame changes requested this cycle, or by a robot mode change
+    SparkStatusFrameBudget.getInstance().periodic();
+    SparkSetpointCache.logMetrics(); // Frames saved by skipping repeated setpoints
+    SparkFaultCounter.logMetrics(); // Failed reads per device
+
     // Return to non-RT thread priority (do not modify the first argument)
     Threads.setCurrentThreadPriority(false, 10);
   }
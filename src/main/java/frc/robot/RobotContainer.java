@@ -7,6 +7,8 @@
 
 package frc.robot;
 
+import static frc.robot.subsystems.vision.VisionConstants.*;
+
 import choreo.auto.AutoChooser;
 import edu.wpi.first.wpilibj.GenericHID;
 import edu.wpi.first.wpilibj.XboxController;
@@ -24,6 +26,8 @@ import frc.robot.subsystems.drive.GyroIOPigeon2;
 import frc.robot.subsystems.drive.ModuleIO;
 import frc.robot.subsystems.drive.ModuleIOSim;
 import frc.robot.subsystems.drive.ModuleIOSpark;
+import frc.robot.subsystems.vision.Vision;
+import frc.robot.subsystems.vision.VisionIOSim;
 import frc.robot.util.Elastic;
 
 /**
@@ -35,6 +39,7 @@ import frc.robot.util.Elastic;
 public class RobotContainer {
   // Subsystems
   private final Drive drive;
+  private final Vision vision;
   private final Wrist wrist;
 
   // Controller
@@ -46,6 +51,9 @@ public class RobotContainer {
 
   /** The container for the robot. Contains subsystems, OI devices, and commands. */
   public RobotContainer() {
+    // Created first so its Sparks configure alongside the drive's
+    wrist = new Wrist();
+
     switch (Constants.currentMode) {
       case REAL:
         // Real robot, instantiate hardware IO implementations
@@ -57,6 +65,8 @@ public class RobotContainer {
                 new ModuleIOSpark(1),
                 new ModuleIOSpark(2),
                 new ModuleIOSpark(3));
+        // No cameras on the robot yet
+        vision = new Vision(drive::addVisionMeasurement, drive::getPoseAt);
         break;
 
       case SIM:
@@ -69,6 +79,14 @@ public class RobotContainer {
                 new ModuleIOSim(),
                 new ModuleIOSim(),
                 new ModuleIOSim());
+        vision =
+            new Vision(
+                drive::addVisionMeasurement,
+                drive::getPoseAt,
+                new VisionIOSim(
+                    "Camera0", robotToCamera0, simCameraFrequencies[0], drive::getSimulatedPoseAt),
+                new VisionIOSim(
+                    "Camera1", robotToCamera1, simCameraFrequencies[1], drive::getSimulatedPoseAt));
         break;
 
       default:
@@ -81,11 +99,11 @@ public class RobotContainer {
                 new ModuleIO() {},
                 new ModuleIO() {},
                 new ModuleIO() {});
+        // Matches the real robot, which has no cameras yet
+        vision = new Vision(drive::addVisionMeasurement, drive::getPoseAt);
         break;
     }
 
-    wrist = new Wrist();
-
     // Set up auto routines
     autoChooser = new AutoChooser();
     autos = new Autos(drive);
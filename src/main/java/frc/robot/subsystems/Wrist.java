@@ -1,8 +1,6 @@
 package frc.robot.subsystems;
 
 import com.revrobotics.spark.SparkBase.ControlType;
-import com.revrobotics.spark.SparkBase.PersistMode;
-import com.revrobotics.spark.SparkBase.ResetMode;
 import com.revrobotics.spark.SparkLowLevel.MotorType;
 import com.revrobotics.spark.SparkMax;
 import com.revrobotics.spark.config.SparkBaseConfig.IdleMode;
@@ -11,6 +9,10 @@ import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import frc.robot.Constants;
 import frc.robot.OI;
+import frc.robot.util.SparkConfigService;
+import frc.robot.util.SparkSetpointCache;
+import frc.robot.util.SparkStatusFrameBudget;
+import frc.robot.util.SparkStatusFrameBudget.Priority;
 import org.littletonrobotics.junction.Logger;
 
 public class Wrist extends SubsystemBase {
@@ -22,31 +24,42 @@ public class Wrist extends SubsystemBase {
 
   private boolean softLimitsEnabled = true;
 
+  private final SparkSetpointCache wristSetpoints = new SparkSetpointCache("Wrist/Pivot");
+  private final SparkSetpointCache spinSetpoints = new SparkSetpointCache("Wrist/Spin");
+
   public Wrist() {
     wristMotor = new SparkMax(Constants.Wrist.wristMotorID, MotorType.kBrushless);
     SparkMaxConfig wristConfig = new SparkMaxConfig();
     wristConfig.idleMode(IdleMode.kBrake);
     wristConfig.closedLoop.pidf(0.5, 0, 0, .1).outputRange(-0.3, 0.3);
     // wristConfig.closedLoop.feedbackSensor(FeedbackSensor.kAbsoluteEncoder);
-    wristMotor.configure(
-        wristConfig, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters);
+    SparkConfigService.getInstance().configure("Wrist/Pivot", wristMotor, wristConfig, null);
 
     spinMotor = new SparkMax(Constants.Wrist.spinMotorID, MotorType.kBrushless);
     SparkMaxConfig spinConfig = new SparkMaxConfig();
     spinConfig.idleMode(IdleMode.kBrake);
-    spinMotor.configure(spinConfig, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters);
+    SparkConfigService.getInstance().configure("Wrist/Spin", spinMotor, spinConfig, null);
+
+    // Status frame periods are set per robot mode by the budget
+    var statusFrameBudget = SparkStatusFrameBudget.getInstance();
+    statusFrameBudget.register("Wrist/Pivot", wristMotor, Priority.NORMAL, false, true);
+    statusFrameBudget.register("Wrist/Spin", spinMotor, Priority.LOW, false, false);
   }
 
   @Override
   public void periodic() {
     super.periodic();
+    double spinOutput;
     if (OI.spinInPower()) {
       // TODO Set this to be smth else
-      spinMotor.set(Constants.Wrist.spinPowerIn);
+      spinOutput = Constants.Wrist.spinPowerIn;
     } else if (OI.spinOutPower()) {
-      spinMotor.set(-Constants.Wrist.spinPowerOut);
+      spinOutput = -Constants.Wrist.spinPowerOut;
     } else {
-      spinMotor.set(0);
+      spinOutput = 0;
+    }
+    if (spinSetpoints.shouldSend(ControlType.kDutyCycle, spinOutput)) {
+      spinMotor.set(spinOutput);
     }
 
     if (OI.wristDownPower() >= Constants.Wrist.wristPowerDeadband) {
@@ -61,7 +74,9 @@ public class Wrist extends SubsystemBase {
     if (softLimitsEnabled) {
       targetPos = MathUtil.clamp(targetPos, 0, 30);
     }
-    wristMotor.getClosedLoopController().setReference(targetPos, ControlType.kPosition);
+    if (wristSetpoints.shouldSend(ControlType.kPosition, targetPos)) {
+      wristMotor.getClosedLoopController().setReference(targetPos, ControlType.kPosition);
+    }
     double error = targetPos - wristMotor.getEncoder().getPosition();
     double kP = 1;
     double PIDpower = error * kP;
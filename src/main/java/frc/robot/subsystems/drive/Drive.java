@@ -11,10 +11,21 @@ import static edu.wpi.first.units.Units.Volts;
 import static frc.robot.subsystems.drive.DriveConstants.autoAngularKp;
 import static frc.robot.subsystems.drive.DriveConstants.autoLinearKp;
 import static frc.robot.subsystems.drive.DriveConstants.driveBaseRadius;
+import static frc.robot.subsystems.drive.DriveConstants.driveGearbox;
+import static frc.robot.subsystems.drive.DriveConstants.driveMotorCurrentLimit;
+import static frc.robot.subsystems.drive.DriveConstants.driveMotorReduction;
 import static frc.robot.subsystems.drive.DriveConstants.maxAngularSpeedFactor;
+import static frc.robot.subsystems.drive.DriveConstants.maxOdometryFrequency;
 import static frc.robot.subsystems.drive.DriveConstants.maxSpeedMetersPerSec;
+import static frc.robot.subsystems.drive.DriveConstants.maxSteerVelocityRadPerSec;
 import static frc.robot.subsystems.drive.DriveConstants.moduleTranslations;
+import static frc.robot.subsystems.drive.DriveConstants.poseHistorySecs;
 import static frc.robot.subsystems.drive.DriveConstants.ppConfig;
+import static frc.robot.subsystems.drive.DriveConstants.robotMassKg;
+import static frc.robot.subsystems.drive.DriveConstants.setpointGeneratorResetSecs;
+import static frc.robot.subsystems.drive.DriveConstants.usePrimitivePoseEstimator;
+import static frc.robot.subsystems.drive.DriveConstants.wheelCOF;
+import static frc.robot.subsystems.drive.DriveConstants.wheelRadiusMeters;
 
 import choreo.trajectory.SwerveSample;
 import com.pathplanner.lib.auto.AutoBuilder;
@@ -27,7 +38,6 @@ import edu.wpi.first.hal.FRCNetComm.tResourceType;
 import edu.wpi.first.hal.HAL;
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.controller.PIDController;
-import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Twist2d;
@@ -41,19 +51,19 @@ import edu.wpi.first.wpilibj.Alert;
 import edu.wpi.first.wpilibj.Alert.AlertType;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.DriverStation.Alliance;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine;
 import frc.robot.Constants;
 import frc.robot.Constants.Mode;
 import frc.robot.util.LocalADStarAK;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import frc.robot.util.SparkStatusFrameBudget;
 import org.littletonrobotics.junction.AutoLogOutput;
 import org.littletonrobotics.junction.Logger;
 
 public class Drive extends SubsystemBase {
-  static final Lock odometryLock = new ReentrantLock();
   // ! GYRO
   private final GyroIO gyroIO;
   private final GyroIOInputsAutoLogged gyroInputs = new GyroIOInputsAutoLogged();
@@ -61,18 +71,68 @@ public class Drive extends SubsystemBase {
   private final SysIdRoutine sysId;
   private final Alert gyroDisconnectedAlert =
       new Alert("Disconnected gyro, using kinematics as fallback.", AlertType.kError);
+  private final OdometryRateController odometryRateController = new OdometryRateController();
 
   private SwerveDriveKinematics kinematics = new SwerveDriveKinematics(moduleTranslations);
-  private Rotation2d rawGyroRotation = Rotation2d.kZero;
-  private SwerveModulePosition[] lastModulePositions = // For delta tracking
-      new SwerveModulePosition[] {
-        new SwerveModulePosition(),
-        new SwerveModulePosition(),
-        new SwerveModulePosition(),
-        new SwerveModulePosition()
-      };
-  private SwerveDrivePoseEstimator poseEstimator =
-      new SwerveDrivePoseEstimator(kinematics, rawGyroRotation, lastModulePositions, Pose2d.kZero);
+  private final SwerveOdometryKinematics odometryKinematics =
+      new SwerveOdometryKinematics(moduleTranslations);
+  // Filtered module positions passed to the estimator, updated in place
+  private final double[] lastModuleDistances = new double[4];
+  private final double[] lastModuleAnglesRad = new double[4];
+  private final DrivePoseEstimator poseEstimator =
+      usePrimitivePoseEstimator
+          ? new PrimitiveDrivePoseEstimator(
+              moduleTranslations,
+              maxOdometryFrequency,
+              Rotation2d.kZero,
+              getLastModulePositions(),
+              Pose2d.kZero)
+          : new WpilibDrivePoseEstimator(
+              kinematics, Rotation2d.kZero, getLastModulePositions(), Pose2d.kZero);
+  private final SwerveSetpointGenerator setpointGenerator =
+      new SwerveSetpointGenerator(
+          moduleTranslations,
+          maxSpeedMetersPerSec,
+          maxSteerVelocityRadPerSec,
+          driveGearbox,
+          driveMotorReduction,
+          wheelRadiusMeters,
+          driveMotorCurrentLimit,
+          robotMassKg,
+          wheelCOF);
+  private double lastSetpointTimestamp = Double.NEGATIVE_INFINITY;
+
+  // Derived state, refreshed once per cycle at the end of periodic
+  private final boolean[] allModules = new boolean[] {true, true, true, true};
+  private final double[] measuredVelocities = new double[4];
+  private final double[] measuredAnglesRad = new double[4];
+  private final double[] measuredSpeeds = new double[3];
+  private SwerveModuleState[] moduleStatesSnapshot;
+  private ChassisSpeeds chassisSpeedsSnapshot;
+  private Pose2d poseSnapshot;
+  private boolean poseSnapshotStale = false;
+  private volatile DriveState state = DriveState.kEmpty;
+  private final PoseHistory poseHistory =
+      new PoseHistory((int) Math.ceil(poseHistorySecs * maxOdometryFrequency));
+
+  // Ground truth for simulated cameras, integrated from the sim modules alone. They never slip, so
+  // this is the true motion, and it is never corrected by vision, so the cameras can't just
+  // confirm the estimate.
+  private final PoseHistory simTruthHistory =
+      Constants.currentMode == Mode.SIM
+          ? new PoseHistory((int) Math.ceil(poseHistorySecs * maxOdometryFrequency))
+          : null;
+  private final double[] simTruthTwist = new double[3];
+  private Pose2d simTruthPose = Pose2d.kZero;
+
+  private final OdometryIntegrator odometryIntegrator =
+      new OdometryIntegrator(
+          odometryKinematics,
+          poseEstimator,
+          poseHistory,
+          lastModuleDistances,
+          lastModuleAnglesRad,
+          simTruthHistory != null ? this::updateSimTruth : null);
 
   private final PIDController xController = new PIDController(autoLinearKp, 0.0, 0.0);
   private final PIDController yController = new PIDController(autoLinearKp, 0.0, 0.0);
@@ -95,8 +155,10 @@ public class Drive extends SubsystemBase {
     // Usage reporting for swerve template
     HAL.report(tResourceType.kResourceType_RobotDrive, tInstances.kRobotDriveSwerve_AdvantageKit);
 
-    // Start odometry thread
-    SparkOdometryThread.getInstance().start();
+    // Send the Spark status frames at the odometry rate. The odometry thread is started by the
+    // robot once the Sparks are configured and the drive encoders zeroed.
+    SparkStatusFrameBudget.getInstance()
+        .setOdometryFrequency(odometryRateController.getFrequency());
 
     // Configure AutoBuilder for PathPlanner
     AutoBuilder.configure(
@@ -130,18 +192,20 @@ public class Drive extends SubsystemBase {
                 (state) -> Logger.recordOutput("Drive/SysIdState", state.toString())),
             new SysIdRoutine.Mechanism(
                 (voltage) -> runCharacterization(voltage.in(Volts)), null, this));
+
+    updateSnapshot();
   }
 
   @Override
   public void periodic() {
-    odometryLock.lock(); // Prevents odometry updates while reading data
+    SparkOdometryThread.getInstance().poll(); // Takes every frame sampled since the last cycle
     // ! GYRO
     gyroIO.updateInputs(gyroInputs);
     Logger.processInputs("Drive/Gyro", gyroInputs);
     for (var module : modules) {
       module.periodic();
     }
-    odometryLock.unlock();
+    SparkOdometryThread.getInstance().logTiming();
 
     // Stop moving when disabled
     if (DriverStation.isDisabled()) {
@@ -157,42 +221,47 @@ public class Drive extends SubsystemBase {
     }
 
     // Update odometry
-    double[] sampleTimestamps =
-        modules[0].getOdometryTimestamps(); // All signals are sampled together
-    int sampleCount = sampleTimestamps.length;
-    for (int i = 0; i < sampleCount; i++) {
-      // Read wheel positions and deltas from each module
-      SwerveModulePosition[] modulePositions = new SwerveModulePosition[4];
-      SwerveModulePosition[] moduleDeltas = new SwerveModulePosition[4];
-      for (int moduleIndex = 0; moduleIndex < 4; moduleIndex++) {
-        modulePositions[moduleIndex] = modules[moduleIndex].getOdometryPositions()[i];
-        moduleDeltas[moduleIndex] =
-            new SwerveModulePosition(
-                modulePositions[moduleIndex].distanceMeters
-                    - lastModulePositions[moduleIndex].distanceMeters,
-                modulePositions[moduleIndex].angle);
-        lastModulePositions[moduleIndex] = modulePositions[moduleIndex];
-      }
-
-      // ! GYRO
-      // Update gyro angle
-      if (gyroInputs.connected) {
-        // if (false) {
-        // Use the real gyro angle
-        rawGyroRotation = gyroInputs.odometryYawPositions[i];
-      } else {
-        // Use the angle delta from the kinematics and module deltas
-        Twist2d twist = kinematics.toTwist2d(moduleDeltas);
-        rawGyroRotation = rawGyroRotation.plus(new Rotation2d(twist.dtheta));
-      }
+    odometryIntegrator.integrate(modules, gyroInputs);
 
-      // Apply update
-      poseEstimator.updateWithTime(sampleTimestamps[i], rawGyroRotation, modulePositions);
-    }
+    // Adjust the odometry sample rate for the robot mode and CAN bus load
+    updateOdometryFrequency();
 
     // Update gyro alert
     // ! GYRO
     gyroDisconnectedAlert.set(!gyroInputs.connected && Constants.currentMode != Mode.SIM);
+
+    updateSnapshot();
+  }
+
+  private void updateSimTruth(
+      double timestamp, double[] distanceDeltas, double[] anglesRad, boolean[] valid) {
+    if (odometryKinematics.solve(distanceDeltas, anglesRad, valid, Double.NaN, simTruthTwist)) {
+      simTruthPose =
+          simTruthPose.exp(new Twist2d(simTruthTwist[0], simTruthTwist[1], simTruthTwist[2]));
+    }
+    simTruthHistory.add(
+        timestamp,
+        simTruthPose.getX(),
+        simTruthPose.getY(),
+        simTruthPose.getRotation().getRadians());
+  }
+
+  private void updateOdometryFrequency() {
+    double canUtilization = RobotController.getCANStatus().percentBusUtilization;
+    double previousFrequency = odometryRateController.getFrequency();
+    double frequency =
+        odometryRateController.update(
+            Timer.getFPGATimestamp(),
+            DriverStation.isDisabled(),
+            DriverStation.isAutonomous(),
+            canUtilization);
+    if (frequency != previousFrequency) {
+      gyroIO.setOdometryFrequency(frequency);
+      SparkStatusFrameBudget.getInstance().setOdometryFrequency(frequency);
+      SparkOdometryThread.getInstance().setFrequency(frequency);
+    }
+    Logger.recordOutput("Odometry/Frequency", frequency);
+    Logger.recordOutput("Odometry/CANUtilization", canUtilization);
   }
 
   /**
@@ -201,14 +270,21 @@ public class Drive extends SubsystemBase {
    * @param speeds Speeds in meters/sec
    */
   public void runVelocity(ChassisSpeeds speeds) {
-    // Calculate module setpoints
-    ChassisSpeeds discreteSpeeds = ChassisSpeeds.discretize(speeds, 0.02);
-    SwerveModuleState[] setpointStates = kinematics.toSwerveModuleStates(discreteSpeeds);
-    SwerveDriveKinematics.desaturateWheelSpeeds(setpointStates, maxSpeedMetersPerSec);
+    // Restart from the measured states if the modules were disabled or run open loop
+    double timestamp = Timer.getTimestamp();
+    if (timestamp - lastSetpointTimestamp > setpointGeneratorResetSecs) {
+      setpointGenerator.reset(measuredVelocities, measuredAnglesRad);
+    }
+    lastSetpointTimestamp = timestamp;
+
+    // Calculate module setpoints within the acceleration and steering limits
+    SwerveModuleState[] setpointStates = setpointGenerator.generate(speeds, 0.02);
 
     // Log unoptimized setpoints
     Logger.recordOutput("SwerveStates/Setpoints", setpointStates);
-    Logger.recordOutput("SwerveChassisSpeeds/Setpoints", discreteSpeeds);
+    Logger.recordOutput("SwerveChassisSpeeds/Requested", speeds);
+    Logger.recordOutput("SwerveChassisSpeeds/Setpoints", setpointGenerator.getChassisSpeeds());
+    Logger.recordOutput("SwerveStates/Locked", setpointGenerator.isLocked());
 
     // Send setpoints to modules
     for (int i = 0; i < 4; i++) {
@@ -249,15 +325,16 @@ public class Drive extends SubsystemBase {
   }
 
   /**
-   * Stops the drive and turns the modules to an X arrangement to resist movement. The modules will
-   * return to their normal orientations the next time a nonzero velocity is requested.
+   * Stops the drive and turns the modules to an X arrangement to resist movement, without waiting
+   * for the robot to slow down. The modules will return to their normal orientations the next time
+   * a nonzero velocity is requested.
    */
   public void stopWithX() {
-    Rotation2d[] headings = new Rotation2d[4];
+    double[] headings = new double[4];
     for (int i = 0; i < 4; i++) {
-      headings[i] = moduleTranslations[i].getAngle();
+      headings[i] = moduleTranslations[i].getAngle().getRadians();
     }
-    kinematics.resetHeadings(headings);
+    setpointGenerator.lock(headings);
     stop();
   }
 
@@ -273,29 +350,53 @@ public class Drive extends SubsystemBase {
     return run(() -> runCharacterization(0.0)).withTimeout(1.0).andThen(sysId.dynamic(direction));
   }
 
-  /** Returns the module states (turn angles and drive velocities) for all of the modules. */
-  @AutoLogOutput(key = "SwerveStates/Measured")
-  private SwerveModuleState[] getModuleStates() {
+  /**
+   * Refreshes the snapshot of state derived from this cycle's inputs. Accessors return the snapshot
+   * so repeated calls within a cycle don't redo the kinematics or allocate.
+   */
+  private void updateSnapshot() {
     SwerveModuleState[] states = new SwerveModuleState[4];
     for (int i = 0; i < 4; i++) {
       states[i] = modules[i].getState();
+      measuredVelocities[i] = states[i].speedMetersPerSecond;
+      measuredAnglesRad[i] = modules[i].getAngleRad();
     }
-    return states;
+    odometryKinematics.solve(
+        measuredVelocities, measuredAnglesRad, allModules, Double.NaN, measuredSpeeds);
+    moduleStatesSnapshot = states;
+    chassisSpeedsSnapshot =
+        new ChassisSpeeds(measuredSpeeds[0], measuredSpeeds[1], measuredSpeeds[2]);
+    poseSnapshot = poseEstimator.getEstimatedPosition();
+    poseSnapshotStale = false;
+
+    // Publish for readers on other threads
+    state =
+        new DriveState(
+            Timer.getTimestamp(),
+            poseSnapshot,
+            measuredSpeeds[0],
+            measuredSpeeds[1],
+            measuredSpeeds[2]);
   }
 
-  /** Returns the module positions (turn angles and drive positions) for all of the modules. */
-  private SwerveModulePosition[] getModulePositions() {
-    SwerveModulePosition[] states = new SwerveModulePosition[4];
-    for (int i = 0; i < 4; i++) {
-      states[i] = modules[i].getPosition();
-    }
-    return states;
+  /**
+   * Returns the drive state published at the end of the last cycle. Safe to call from any thread
+   * without locking; the returned snapshot never changes.
+   */
+  public DriveState getState() {
+    return state;
+  }
+
+  /** Returns the module states (turn angles and drive velocities) for all of the modules. */
+  @AutoLogOutput(key = "SwerveStates/Measured")
+  private SwerveModuleState[] getModuleStates() {
+    return moduleStatesSnapshot;
   }
 
   /** Returns the measured chassis speeds of the robot. */
   @AutoLogOutput(key = "SwerveChassisSpeeds/Measured")
   public ChassisSpeeds getChassisSpeeds() {
-    return kinematics.toChassisSpeeds(getModuleStates());
+    return chassisSpeedsSnapshot;
   }
 
   /** Returns the position of each module in radians. */
@@ -319,7 +420,12 @@ public class Drive extends SubsystemBase {
   /** Returns the current odometry pose. */
   @AutoLogOutput(key = "Odometry/Robot")
   public Pose2d getPose() {
-    return poseEstimator.getEstimatedPosition();
+    if (poseSnapshotStale) {
+      // Reset or corrected by vision since the snapshot
+      poseSnapshot = poseEstimator.getEstimatedPosition();
+      poseSnapshotStale = false;
+    }
+    return poseSnapshot;
   }
 
   /** Returns the current odometry rotation. */
@@ -328,25 +434,71 @@ public class Drive extends SubsystemBase {
   }
 
   public Rotation2d getRawRotation() {
-    return rawGyroRotation;
+    return Rotation2d.fromRadians(odometryIntegrator.getRawGyroRad());
   }
 
   public double getYawVelocityRadPerSec() {
     return gyroInputs.yawVelocityRadPerSec;
   }
 
-  /** Resets the current odometry pose. */
+  /** Resets the current odometry pose. In simulation, the robot is also moved to the pose. */
   public void setPose(Pose2d pose) {
-    poseEstimator.resetPosition(rawGyroRotation, getModulePositions(), pose);
+    poseEstimator.resetPosition(
+        Rotation2d.fromRadians(odometryIntegrator.getRawGyroRad()), getLastModulePositions(), pose);
+    poseHistory.clear();
+    poseSnapshotStale = true;
+    if (simTruthHistory != null) {
+      simTruthPose = pose;
+      simTruthHistory.clear();
+    }
+  }
+
+  /** Returns the filtered module positions last passed to the estimator. */
+  private SwerveModulePosition[] getLastModulePositions() {
+    var positions = new SwerveModulePosition[4];
+    for (int i = 0; i < 4; i++) {
+      positions[i] =
+          new SwerveModulePosition(
+              lastModuleDistances[i], Rotation2d.fromRadians(lastModuleAnglesRad[i]));
+    }
+    return positions;
   }
 
-  /** Adds a new timestamped vision measurement. */
+  /**
+   * Looks up the estimated pose at a past timestamp, interpolating between odometry samples. This
+   * is the estimate as it was at that time, before any later vision corrections. Safe to call from
+   * any thread and does not allocate.
+   *
+   * @param timestampSeconds The FPGA timestamp to look up.
+   * @param poseOut Array of at least three elements, filled with x (meters), y (meters) and
+   *     rotation (radians).
+   * @return Whether any pose history was available.
+   */
+  public boolean getPoseAt(double timestampSeconds, double[] poseOut) {
+    return poseHistory.sample(timestampSeconds, poseOut);
+  }
+
+  /**
+   * Looks up the true pose of the simulated robot at a past timestamp, in the same form as {@link
+   * #getPoseAt(double, double[])}. Safe to call from any thread. Always returns false outside
+   * simulation.
+   */
+  public boolean getSimulatedPoseAt(double timestampSeconds, double[] poseOut) {
+    return simTruthHistory != null && simTruthHistory.sample(timestampSeconds, poseOut);
+  }
+
+  /**
+   * Adds a new timestamped vision measurement. Must be called from the main loop, since the pose
+   * estimator is not thread-safe; cameras should queue their measurements through {@link
+   * frc.robot.subsystems.vision.Vision}.
+   */
   public void addVisionMeasurement(
       Pose2d visionRobotPoseMeters,
       double timestampSeconds,
       Matrix<N3, N1> visionMeasurementStdDevs) {
     poseEstimator.addVisionMeasurement(
         visionRobotPoseMeters, timestampSeconds, visionMeasurementStdDevs);
+    poseSnapshotStale = true;
   }
 
   /** Returns the maximum linear speed in meters per sec. */
@@ -385,5 +537,7 @@ public class Drive extends SubsystemBase {
     } else {
       poseEstimator.resetRotation(Rotation2d.kZero);
     }
+    poseHistory.clear();
+    poseSnapshotStale = true;
   }
 }
@@ -30,7 +30,30 @@ public class DriveConstants {
   public static final double maxSpeedMetersPerSec = 4.8;
   // * Max rotation speed (Rad/Sec) while moving / Max rotation speed while stationary
   public static final double maxAngularSpeedFactor = (5.48598 / 9.52601);
-  public static final double odometryFrequency = 100.0; // Hz
+  public static final double odometryFrequency = 100.0; // Hz, rate at boot
+  public static final double odometryFrequencyDisabled = 50.0; // Hz
+  public static final double odometryFrequencyAuto = 250.0; // Hz
+  public static final double odometryFrequencyTeleop = 100.0; // Hz
+  public static final double minOdometryFrequency = 50.0; // Hz, floor when backing off
+  public static final double maxOdometryFrequency = 250.0; // Hz
+  // * CAN utilization (0-1) above which the odometry rate backs off, and below which it recovers
+  // * freely. In between it only recovers to rates under the one that last overloaded the bus.
+  public static final double canUtilizationBackoffThreshold = 0.8;
+  public static final double canUtilizationRecoverThreshold = 0.6;
+  public static final int odometryThreadPriority = 50; // RT priority 1-99, 0 for non-RT
+  // * Longest main loop stall (e.g. log flushes, class loading) odometry must survive without loss
+  public static final double odometryMaxStallSecs = 0.5;
+  // * Longest gap between gyro samples that is interpolated across when aligning to module samples
+  public static final double maxGyroSampleGapSecs = 0.05;
+  // * Length of pose history kept for latency-compensated lookups
+  public static final double poseHistorySecs = 2.0;
+  // * Speed a module can differ from the rest of the drive before it is treated as slipping
+  public static final double slipVelocityThreshold = 0.5;
+  // * Fewest modules kept when leaving out slipping modules
+  public static final int minOdometryModules = 2;
+  // * Use the allocation-free pose estimator instead of the WPILib one. Off until
+  // * PoseEstimatorBenchmarkTest shows it is faster as well as allocation-free.
+  public static final boolean usePrimitivePoseEstimator = false;
   public static final double trackWidth = Units.inchesToMeters(22);
   public static final double wheelBase = Units.inchesToMeters(22);
   public static final double driveBaseRadius = Math.hypot(trackWidth / 2.0, wheelBase / 2.0);
@@ -46,6 +69,13 @@ public class DriveConstants {
   public static final int frontRightTurnEncoderId = 1;
   public static final int backLeftTurnEncoderId = 2;
   public static final int backRightTurnEncoderId = 3;
+  // * FPGA oversampling and averaging of the absolute encoders, 2^bits samples each
+  public static final int turnAbsoluteEncoderOversampleBits = 2;
+  public static final int turnAbsoluteEncoderAverageBits = 2;
+  // * Absolute encoder samples averaged to rezero, one per main loop cycle
+  public static final int turnRezeroSamples = 10;
+  // * Weight of each main loop sample in the running estimate of encoder drift
+  public static final double turnDriftSmoothing = 0.05;
 
   // Zeroed rotation values for each module, see setup instructions
   public static final Rotation2d frontLeftZeroRotation = new Rotation2d(5.547);
@@ -136,6 +166,13 @@ public class DriveConstants {
               1),
           moduleTranslations);
 
+  // Setpoint generator configuration
+  // * Fastest the turn motor can rotate a module, derated to leave headroom for the turn PID
+  public static final double maxSteerVelocityRadPerSec =
+      0.8 * turnGearbox.freeSpeedRadPerSec / (2 * Math.PI * turnMotorReduction);
+  // * Time without a velocity setpoint after which the generator restarts from measured states
+  public static final double setpointGeneratorResetSecs = 0.1;
+
   // Auto config
   public static final double autoLinearKp = 3.5;
   public static final double autoAngularKp = 7.0;
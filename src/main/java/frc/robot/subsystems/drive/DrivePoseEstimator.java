@@ -0,0 +1,68 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+
+/**
+ * Fuses odometry with vision measurements. Matches the parts of {@link
+ * edu.wpi.first.math.estimator.SwerveDrivePoseEstimator} used by {@link Drive}, so the estimator
+ * can be swapped without changing the drive API.
+ */
+public interface DrivePoseEstimator {
+  /**
+   * Updates the estimate with a new odometry sample. The arrays are copied, so they can be reused
+   * by the caller.
+   *
+   * @param timestampSeconds The FPGA timestamp of the sample.
+   * @param gyroAngleRad The gyro angle in radians.
+   * @param moduleDistancesMeters The total drive distance of each module in meters.
+   * @param moduleAnglesRad The angle of each module in radians.
+   */
+  public void update(
+      double timestampSeconds,
+      double gyroAngleRad,
+      double[] moduleDistancesMeters,
+      double[] moduleAnglesRad);
+
+  /**
+   * Adds a vision measurement taken at a past timestamp.
+   *
+   * @param visionRobotPoseMeters The measured robot pose.
+   * @param timestampSeconds The FPGA timestamp of the measurement.
+   * @param visionMeasurementStdDevs Standard deviations of the measurement in x, y (meters) and
+   *     heading (radians).
+   */
+  public void addVisionMeasurement(
+      Pose2d visionRobotPoseMeters,
+      double timestampSeconds,
+      Matrix<N3, N1> visionMeasurementStdDevs);
+
+  /** Resets the estimate to a pose, with the gyro angle and module positions at that pose. */
+  public void resetPosition(
+      Rotation2d gyroAngle, SwerveModulePosition[] modulePositions, Pose2d poseMeters);
+
+  /** Resets the heading of the estimate, keeping the translation. */
+  public void resetRotation(Rotation2d rotation);
+
+  /** Returns the current estimated pose. */
+  public Pose2d getEstimatedPosition();
+
+  /**
+   * Gets the current estimated pose without allocating.
+   *
+   * @param poseOut Array of at least three elements, filled with x (meters), y (meters) and
+   *     rotation (radians).
+   */
+  public void getEstimatedPosition(double[] poseOut);
+}
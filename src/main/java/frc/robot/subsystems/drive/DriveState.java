@@ -0,0 +1,41 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+
+/**
+ * Immutable snapshot of the drive, published by {@link Drive} once per cycle. Since nothing in it
+ * can change after it is published, it can be read from any thread.
+ *
+ * @param timestamp The FPGA timestamp of the cycle that published the snapshot, in seconds.
+ * @param pose The estimated pose.
+ * @param vxMetersPerSec The measured robot-relative X velocity.
+ * @param vyMetersPerSec The measured robot-relative Y velocity.
+ * @param omegaRadPerSec The measured angular velocity.
+ */
+public record DriveState(
+    double timestamp,
+    Pose2d pose,
+    double vxMetersPerSec,
+    double vyMetersPerSec,
+    double omegaRadPerSec) {
+  public static final DriveState kEmpty = new DriveState(0.0, Pose2d.kZero, 0.0, 0.0, 0.0);
+
+  /** Returns a new copy of the measured robot-relative speeds. */
+  public ChassisSpeeds robotRelativeSpeeds() {
+    return new ChassisSpeeds(vxMetersPerSec, vyMetersPerSec, omegaRadPerSec);
+  }
+
+  /** Returns a new copy of the measured field-relative speeds. */
+  public ChassisSpeeds fieldRelativeSpeeds() {
+    return ChassisSpeeds.fromRobotRelativeSpeeds(
+        vxMetersPerSec, vyMetersPerSec, omegaRadPerSec, pose.getRotation());
+  }
+}
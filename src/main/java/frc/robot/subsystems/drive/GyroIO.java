@@ -18,7 +18,11 @@ public interface GyroIO {
     public double yawVelocityRadPerSec = 0.0;
     public double[] odometryYawTimestamps = new double[] {};
     public Rotation2d[] odometryYawPositions = new Rotation2d[] {};
+    public boolean[] odometryYawValid = new boolean[] {};
   }
 
   public default void updateInputs(GyroIOInputs inputs) {}
+
+  /** Sets the rate of the yaw signal sampled for odometry. */
+  public default void setOdometryFrequency(double frequencyHz) {}
 }
@@ -19,14 +19,12 @@ import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.units.measure.Angle;
 import edu.wpi.first.units.measure.AngularVelocity;
-import java.util.Queue;
 
 /** IO implementation for Pigeon 2. */
 public class GyroIOPigeon2 implements GyroIO {
   private final Pigeon2 pigeon = new Pigeon2(pigeonCanId);
   private final StatusSignal<Angle> yaw = pigeon.getYaw();
-  private final Queue<Double> yawPositionQueue;
-  private final Queue<Double> yawTimestampQueue;
+  private final int yawPositionSignal;
   private final StatusSignal<AngularVelocity> yawVelocity = pigeon.getAngularVelocityZWorld();
 
   public GyroIOPigeon2() {
@@ -35,13 +33,23 @@ public class GyroIOPigeon2 implements GyroIO {
     yaw.setUpdateFrequency(odometryFrequency);
     yawVelocity.setUpdateFrequency(50.0);
     pigeon.optimizeBusUtilization();
-    yawTimestampQueue = SparkOdometryThread.getInstance().makeTimestampQueue();
     var yawClone = yaw.clone(); // Status signals are not thread-safe
-    yawPositionQueue =
+    yawPositionSignal =
         SparkOdometryThread.getInstance()
             .registerSignal(
-                () ->
-                    yawClone.refresh().getValueAsDouble() / DriveConstants.pigeonYawPositionFactor);
+                "Gyro/YawPosition",
+                () -> {
+                  // Report failed refreshes as NaN so the sample is marked invalid
+                  if (!yawClone.refresh().getStatus().isOK()) {
+                    return Double.NaN;
+                  }
+                  return yawClone.getValueAsDouble() / DriveConstants.pigeonYawPositionFactor;
+                });
+  }
+
+  @Override
+  public void setOdometryFrequency(double frequencyHz) {
+    yaw.setUpdateFrequency(frequencyHz, 0.0); // Don't block the main loop waiting for a response
   }
 
   @Override
@@ -51,13 +59,15 @@ public class GyroIOPigeon2 implements GyroIO {
         Rotation2d.fromDegrees(yaw.getValueAsDouble() / DriveConstants.pigeonYawPositionFactor);
     inputs.yawVelocityRadPerSec = Units.degreesToRadians(yawVelocity.getValueAsDouble());
 
-    inputs.odometryYawTimestamps =
-        yawTimestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryYawPositions =
-        yawPositionQueue.stream()
-            .map((Double value) -> Rotation2d.fromDegrees(value))
-            .toArray(Rotation2d[]::new);
-    yawTimestampQueue.clear();
-    yawPositionQueue.clear();
+    var frames = SparkOdometryThread.getInstance().getFrames();
+    int sampleCount = frames.count();
+    inputs.odometryYawTimestamps = new double[sampleCount];
+    inputs.odometryYawPositions = new Rotation2d[sampleCount];
+    inputs.odometryYawValid = new boolean[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      inputs.odometryYawTimestamps[i] = frames.timestamp(i);
+      inputs.odometryYawValid[i] = frames.isValid(i, yawPositionSignal);
+      inputs.odometryYawPositions[i] = Rotation2d.fromDegrees(frames.value(i, yawPositionSignal));
+    }
   }
 }
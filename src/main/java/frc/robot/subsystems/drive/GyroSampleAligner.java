@@ -0,0 +1,112 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * Aligns gyro yaw samples to module sample timestamps by interpolating between the gyro samples on
+ * either side. This allows the gyro to be sampled at a different rate or phase than the modules,
+ * and tolerates mismatched or missing samples.
+ *
+ * <p>Queries must be made in increasing timestamp order. The latest gyro sample is carried over
+ * between cycles so module samples at the start of a cycle can still be bracketed.
+ */
+public class GyroSampleAligner {
+  private final double maxGapSecs;
+
+  // Samples for the current cycle
+  private double[] timestamps = new double[] {};
+  private Rotation2d[] positions = new Rotation2d[] {};
+  private boolean[] valid = new boolean[] {};
+  private int sampleCount = 0;
+  private int cursor = 0;
+
+  // Latest valid sample at or before the last query, kept across cycles
+  private boolean hasPrevious = false;
+  private double previousTimestamp = 0.0;
+  private double previousPositionRad = 0.0;
+
+  private double alignedPositionRad = 0.0;
+
+  /**
+   * Creates a new aligner.
+   *
+   * @param maxGapSecs The longest time between gyro samples that will be interpolated or held.
+   */
+  public GyroSampleAligner(double maxGapSecs) {
+    this.maxGapSecs = maxGapSecs;
+  }
+
+  /**
+   * Starts a new cycle with the gyro samples received this cycle. Arrays of different lengths are
+   * truncated to the shortest, and a missing validity array marks every sample valid.
+   */
+  public void setSamples(double[] timestamps, Rotation2d[] positions, boolean[] valid) {
+    this.timestamps = timestamps;
+    this.positions = positions;
+    this.valid = valid;
+    sampleCount = Math.min(timestamps.length, positions.length);
+    cursor = 0;
+  }
+
+  /**
+   * Finds the gyro yaw at the specified time, available from {@link #getAlignedPositionRad()}.
+   *
+   * @return Whether a yaw could be found within the allowed gap.
+   */
+  public boolean align(double timestamp) {
+    // Consume every sample at or before the query time
+    while (cursor < sampleCount && timestamps[cursor] <= timestamp) {
+      if (isValid(cursor)) {
+        hasPrevious = true;
+        previousTimestamp = timestamps[cursor];
+        previousPositionRad = positions[cursor].getRadians();
+      }
+      cursor++;
+    }
+
+    // Find the first valid sample after the query time without consuming it
+    int next = cursor;
+    while (next < sampleCount && !isValid(next)) {
+      next++;
+    }
+    boolean hasNext = next < sampleCount && timestamps[next] - timestamp <= maxGapSecs;
+    boolean previousInRange = hasPrevious && timestamp - previousTimestamp <= maxGapSecs;
+
+    if (previousInRange && (previousTimestamp == timestamp || !hasNext)) {
+      // Exact match, or hold the latest sample
+      alignedPositionRad = previousPositionRad;
+    } else if (previousInRange) {
+      // Interpolate across the shortest arc between the bracketing samples
+      double t = (timestamp - previousTimestamp) / (timestamps[next] - previousTimestamp);
+      double deltaRad = MathUtil.angleModulus(positions[next].getRadians() - previousPositionRad);
+      alignedPositionRad = previousPositionRad + deltaRad * t;
+    } else if (hasNext) {
+      alignedPositionRad = positions[next].getRadians();
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  /** Returns the yaw in radians found by the last successful call to {@link #align(double)}. */
+  public double getAlignedPositionRad() {
+    return alignedPositionRad;
+  }
+
+  /** Consumes the remaining samples this cycle so the latest one carries over to the next. */
+  public void finish() {
+    align(Double.POSITIVE_INFINITY);
+  }
+
+  private boolean isValid(int index) {
+    return index >= valid.length || valid[index];
+  }
+}
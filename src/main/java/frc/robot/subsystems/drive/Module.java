@@ -18,12 +18,12 @@ import org.littletonrobotics.junction.Logger;
 
 public class Module {
   private final ModuleIO io;
-  private final ModuleIOInputsAutoLogged inputs = new ModuleIOInputsAutoLogged();
+  private final ModuleIO.ModuleIOInputs inputs = new ModuleIO.ModuleIOInputs();
   private final int index;
 
   private final Alert driveDisconnectedAlert;
   private final Alert turnDisconnectedAlert;
-  private SwerveModulePosition[] odometryPositions = new SwerveModulePosition[] {};
+  private Rotation2d angle = Rotation2d.kZero; // Derived from the inputs when first needed
 
   public Module(ModuleIO io, int index) {
     this.io = io;
@@ -43,15 +43,6 @@ public class Module {
     io.updateInputs(inputs);
     Logger.processInputs("Drive/Module" + Integer.toString(index), inputs);
 
-    // Calculate positions for odometry
-    int sampleCount = inputs.odometryTimestamps.length; // All signals are sampled together
-    odometryPositions = new SwerveModulePosition[sampleCount];
-    for (int i = 0; i < sampleCount; i++) {
-      double positionMeters = inputs.odometryDrivePositionsRad[i] * wheelRadiusMeters;
-      Rotation2d angle = inputs.odometryTurnPositions[i];
-      odometryPositions[i] = new SwerveModulePosition(positionMeters, angle);
-    }
-
     // Update alerts
     driveDisconnectedAlert.set(!inputs.driveConnected);
     turnDisconnectedAlert.set(!inputs.turnConnected);
@@ -61,7 +52,7 @@ public class Module {
   public void runSetpoint(SwerveModuleState state) {
     // Optimize velocity setpoint
     state.optimize(getAngle());
-    state.cosineScale(inputs.turnPosition);
+    state.cosineScale(getAngle());
 
     // Apply setpoints
     io.setDriveVelocity(state.speedMetersPerSecond / wheelRadiusMeters);
@@ -82,7 +73,15 @@ public class Module {
 
   /** Returns the current turn angle of the module. */
   public Rotation2d getAngle() {
-    return inputs.turnPosition;
+    if (angle.getRadians() != inputs.turnPositionRad) {
+      angle = Rotation2d.fromRadians(inputs.turnPositionRad);
+    }
+    return angle;
+  }
+
+  /** Returns the current turn angle of the module in radians. */
+  public double getAngleRad() {
+    return inputs.turnPositionRad;
   }
 
   /** Returns the current drive position of the module in meters. */
@@ -105,9 +104,22 @@ public class Module {
     return new SwerveModuleState(getVelocityMetersPerSec(), getAngle());
   }
 
-  /** Returns the module positions received this cycle. */
-  public SwerveModulePosition[] getOdometryPositions() {
-    return odometryPositions;
+  /** Returns the drive position in meters of a sample received this cycle. */
+  public double getOdometryPositionMeters(int sample) {
+    return inputs.odometryDrivePositionsRad[sample] * wheelRadiusMeters;
+  }
+
+  /** Returns the turn angle in radians of a sample received this cycle. */
+  public double getOdometryAngleRad(int sample) {
+    return inputs.odometryTurnPositionsRad[sample];
+  }
+
+  /**
+   * Returns whether the drive and turn positions of a sample received this cycle were both read
+   * successfully. Samples from logs recorded before validity was tracked are treated as valid.
+   */
+  public boolean isOdometrySampleValid(int sample) {
+    return sample >= inputs.odometryValid.length || inputs.odometryValid[sample];
   }
 
   /** Returns the timestamps of the samples received this cycle. */
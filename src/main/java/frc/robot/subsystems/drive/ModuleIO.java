@@ -8,11 +8,16 @@
 package frc.robot.subsystems.drive;
 
 import edu.wpi.first.math.geometry.Rotation2d;
-import org.littletonrobotics.junction.AutoLog;
+import org.littletonrobotics.junction.LogTable;
+import org.littletonrobotics.junction.inputs.LoggableInputs;
 
 public interface ModuleIO {
-  @AutoLog
-  public static class ModuleIOInputs {
+  /**
+   * Module inputs, with angles stored as radians so reading them doesn't allocate. Logged by hand
+   * rather than with {@code @AutoLog} so the angles keep the Rotation2d keys and types of older
+   * logs, which still replay.
+   */
+  public static class ModuleIOInputs implements LoggableInputs {
     public boolean driveConnected = false;
     public double drivePositionRad = 0.0;
     public double driveVelocityRadPerSec = 0.0;
@@ -20,18 +25,108 @@ public interface ModuleIO {
     public double driveCurrentAmps = 0.0;
 
     public boolean turnConnected = false;
-    public Rotation2d relativeRotationOffset = Rotation2d.kZero;
-    public Rotation2d rawRelativeTurnPosition = Rotation2d.kZero;
-    public Rotation2d turnPosition = Rotation2d.kZero;
-    public Rotation2d rawAbsoluteTurnPosition = Rotation2d.kZero;
-    public Rotation2d absoluteTurnPosition = Rotation2d.kZero;
+    public double relativeRotationOffsetRad = 0.0;
+    public double rawRelativeTurnPositionRad = 0.0;
+    public double turnPositionRad = 0.0;
+    public double rawAbsoluteTurnPositionRad = 0.0;
+    public double absoluteTurnPositionRad = 0.0;
     public double turnVelocityRadPerSec = 0.0;
     public double turnAppliedVolts = 0.0;
     public double turnCurrentAmps = 0.0;
+    public double turnEncoderDriftRad = 0.0; // Relative minus absolute since the last rezero
 
     public double[] odometryTimestamps = new double[] {};
     public double[] odometryDrivePositionsRad = new double[] {};
-    public Rotation2d[] odometryTurnPositions = new Rotation2d[] {};
+    public double[] odometryTurnPositionsRad = new double[] {};
+    public boolean[] odometryValid = new boolean[] {};
+
+    // Rotations last written to the log, reused while the angles don't change
+    private Rotation2d loggedRelativeRotationOffset = Rotation2d.kZero;
+    private Rotation2d loggedRawRelativeTurnPosition = Rotation2d.kZero;
+    private Rotation2d loggedTurnPosition = Rotation2d.kZero;
+    private Rotation2d loggedRawAbsoluteTurnPosition = Rotation2d.kZero;
+    private Rotation2d loggedAbsoluteTurnPosition = Rotation2d.kZero;
+    private Rotation2d loggedOdometryTurnPosition = Rotation2d.kZero;
+
+    @Override
+    public void toLog(LogTable table) {
+      table.put("DriveConnected", driveConnected);
+      table.put("DrivePositionRad", drivePositionRad);
+      table.put("DriveVelocityRadPerSec", driveVelocityRadPerSec);
+      table.put("DriveAppliedVolts", driveAppliedVolts);
+      table.put("DriveCurrentAmps", driveCurrentAmps);
+
+      table.put("TurnConnected", turnConnected);
+      loggedRelativeRotationOffset =
+          toRotation(loggedRelativeRotationOffset, relativeRotationOffsetRad);
+      table.put("RelativeRotationOffset", loggedRelativeRotationOffset);
+      loggedRawRelativeTurnPosition =
+          toRotation(loggedRawRelativeTurnPosition, rawRelativeTurnPositionRad);
+      table.put("RawRelativeTurnPosition", loggedRawRelativeTurnPosition);
+      loggedTurnPosition = toRotation(loggedTurnPosition, turnPositionRad);
+      table.put("TurnPosition", loggedTurnPosition);
+      loggedRawAbsoluteTurnPosition =
+          toRotation(loggedRawAbsoluteTurnPosition, rawAbsoluteTurnPositionRad);
+      table.put("RawAbsoluteTurnPosition", loggedRawAbsoluteTurnPosition);
+      loggedAbsoluteTurnPosition = toRotation(loggedAbsoluteTurnPosition, absoluteTurnPositionRad);
+      table.put("AbsoluteTurnPosition", loggedAbsoluteTurnPosition);
+      table.put("TurnVelocityRadPerSec", turnVelocityRadPerSec);
+      table.put("TurnAppliedVolts", turnAppliedVolts);
+      table.put("TurnCurrentAmps", turnCurrentAmps);
+      table.put("TurnEncoderDriftRad", turnEncoderDriftRad);
+
+      table.put("OdometryTimestamps", odometryTimestamps);
+      table.put("OdometryDrivePositionsRad", odometryDrivePositionsRad);
+      // The logged struct array needs a new array each cycle, since the logger may still be writing
+      // out the previous one. Its entries are shared while the angle doesn't change.
+      Rotation2d[] odometryTurnPositions = new Rotation2d[odometryTurnPositionsRad.length];
+      for (int i = 0; i < odometryTurnPositions.length; i++) {
+        loggedOdometryTurnPosition =
+            toRotation(loggedOdometryTurnPosition, odometryTurnPositionsRad[i]);
+        odometryTurnPositions[i] = loggedOdometryTurnPosition;
+      }
+      table.put("OdometryTurnPositions", odometryTurnPositions);
+      table.put("OdometryValid", odometryValid);
+    }
+
+    @Override
+    public void fromLog(LogTable table) {
+      driveConnected = table.get("DriveConnected", driveConnected);
+      drivePositionRad = table.get("DrivePositionRad", drivePositionRad);
+      driveVelocityRadPerSec = table.get("DriveVelocityRadPerSec", driveVelocityRadPerSec);
+      driveAppliedVolts = table.get("DriveAppliedVolts", driveAppliedVolts);
+      driveCurrentAmps = table.get("DriveCurrentAmps", driveCurrentAmps);
+
+      turnConnected = table.get("TurnConnected", turnConnected);
+      relativeRotationOffsetRad =
+          table.get("RelativeRotationOffset", loggedRelativeRotationOffset).getRadians();
+      rawRelativeTurnPositionRad =
+          table.get("RawRelativeTurnPosition", loggedRawRelativeTurnPosition).getRadians();
+      turnPositionRad = table.get("TurnPosition", loggedTurnPosition).getRadians();
+      rawAbsoluteTurnPositionRad =
+          table.get("RawAbsoluteTurnPosition", loggedRawAbsoluteTurnPosition).getRadians();
+      absoluteTurnPositionRad =
+          table.get("AbsoluteTurnPosition", loggedAbsoluteTurnPosition).getRadians();
+      turnVelocityRadPerSec = table.get("TurnVelocityRadPerSec", turnVelocityRadPerSec);
+      turnAppliedVolts = table.get("TurnAppliedVolts", turnAppliedVolts);
+      turnCurrentAmps = table.get("TurnCurrentAmps", turnCurrentAmps);
+      turnEncoderDriftRad = table.get("TurnEncoderDriftRad", turnEncoderDriftRad);
+
+      odometryTimestamps = table.get("OdometryTimestamps", odometryTimestamps);
+      odometryDrivePositionsRad = table.get("OdometryDrivePositionsRad", odometryDrivePositionsRad);
+      Rotation2d[] odometryTurnPositions =
+          table.get("OdometryTurnPositions", new Rotation2d[] {});
+      odometryTurnPositionsRad = new double[odometryTurnPositions.length];
+      for (int i = 0; i < odometryTurnPositions.length; i++) {
+        odometryTurnPositionsRad[i] = odometryTurnPositions[i].getRadians();
+      }
+      odometryValid = table.get("OdometryValid", odometryValid);
+    }
+
+    /** Returns the previous rotation if it still matches the angle, or a new one if not. */
+    private static Rotation2d toRotation(Rotation2d previous, double angleRad) {
+      return previous.getRadians() == angleRad ? previous : Rotation2d.fromRadians(angleRad);
+    }
   }
 
   /** Updates the set of loggable inputs. */
@@ -74,7 +74,7 @@ public class ModuleIOSim implements ModuleIO {
 
     // Update turn inputs
     inputs.turnConnected = true;
-    inputs.turnPosition = new Rotation2d(turnSim.getAngularPositionRad());
+    inputs.turnPositionRad = turnSim.getAngularPositionRad();
     inputs.turnVelocityRadPerSec = turnSim.getAngularVelocityRadPerSec();
     inputs.turnAppliedVolts = turnAppliedVolts;
     inputs.turnCurrentAmps = Math.abs(turnSim.getCurrentDrawAmps());
@@ -82,7 +82,8 @@ public class ModuleIOSim implements ModuleIO {
     // Update odometry inputs (50Hz because high-frequency odometry in sim doesn't matter)
     inputs.odometryTimestamps = new double[] {Timer.getFPGATimestamp()};
     inputs.odometryDrivePositionsRad = new double[] {inputs.drivePositionRad};
-    inputs.odometryTurnPositions = new Rotation2d[] {inputs.turnPosition};
+    inputs.odometryTurnPositionsRad = new double[] {inputs.turnPositionRad};
+    inputs.odometryValid = new boolean[] {true};
   }
 
   @Override
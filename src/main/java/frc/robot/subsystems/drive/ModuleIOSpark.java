@@ -26,7 +26,9 @@ import static frc.robot.subsystems.drive.DriveConstants.frontLeftZeroRotation;
 import static frc.robot.subsystems.drive.DriveConstants.frontRightDriveCanId;
 import static frc.robot.subsystems.drive.DriveConstants.frontRightTurnCanId;
 import static frc.robot.subsystems.drive.DriveConstants.frontRightZeroRotation;
-import static frc.robot.subsystems.drive.DriveConstants.odometryFrequency;
+import static frc.robot.subsystems.drive.DriveConstants.turnAbsoluteEncoderAverageBits;
+import static frc.robot.subsystems.drive.DriveConstants.turnAbsoluteEncoderOversampleBits;
+import static frc.robot.subsystems.drive.DriveConstants.turnDriftSmoothing;
 import static frc.robot.subsystems.drive.DriveConstants.turnEncoderInverted;
 import static frc.robot.subsystems.drive.DriveConstants.turnEncoderPositionFactor;
 import static frc.robot.subsystems.drive.DriveConstants.turnEncoderVelocityFactor;
@@ -36,16 +38,13 @@ import static frc.robot.subsystems.drive.DriveConstants.turnKp;
 import static frc.robot.subsystems.drive.DriveConstants.turnMotorCurrentLimit;
 import static frc.robot.subsystems.drive.DriveConstants.turnPIDMaxInput;
 import static frc.robot.subsystems.drive.DriveConstants.turnPIDMinInput;
-import static frc.robot.util.SparkUtil.ifOk;
-import static frc.robot.util.SparkUtil.sparkStickyFault;
+import static frc.robot.subsystems.drive.DriveConstants.turnRezeroSamples;
 import static frc.robot.util.SparkUtil.tryUntilOk;
 
 import com.revrobotics.RelativeEncoder;
 import com.revrobotics.spark.ClosedLoopSlot;
 import com.revrobotics.spark.SparkBase;
 import com.revrobotics.spark.SparkBase.ControlType;
-import com.revrobotics.spark.SparkBase.PersistMode;
-import com.revrobotics.spark.SparkBase.ResetMode;
 import com.revrobotics.spark.SparkClosedLoopController;
 import com.revrobotics.spark.SparkClosedLoopController.ArbFFUnits;
 import com.revrobotics.spark.SparkFlex;
@@ -60,8 +59,13 @@ import edu.wpi.first.math.filter.Debouncer;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.wpilibj.AnalogInput;
 import edu.wpi.first.wpilibj.RobotController;
-import java.util.Queue;
-import java.util.function.DoubleSupplier;
+import frc.robot.util.SparkConfigService;
+import frc.robot.util.SparkFaultCounter;
+import frc.robot.util.SparkFaultCounter.Signal;
+import frc.robot.util.SparkSetpointCache;
+import frc.robot.util.SparkStatusFrameBudget;
+import frc.robot.util.SparkStatusFrameBudget.Priority;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Module IO implementation for Spark Flex drive motor controller, Spark Max turn motor controller,
@@ -69,7 +73,7 @@ import java.util.function.DoubleSupplier;
  */
 public class ModuleIOSpark implements ModuleIO {
   private final Rotation2d zeroRotation;
-  private Rotation2d relativeEncoderOffset;
+  private double relativeEncoderOffsetRad = 0.0;
 
   // Hardware objects
   private final SparkBase driveSpark;
@@ -82,10 +86,18 @@ public class ModuleIOSpark implements ModuleIO {
   private final SparkClosedLoopController driveController;
   private final SparkClosedLoopController turnController;
 
-  // Queue inputs from odometry thread
-  private final Queue<Double> timestampQueue;
-  private final Queue<Double> drivePositionQueue;
-  private final Queue<Double> turnPositionQueue;
+  // Signal indices within odometry frames
+  private final int drivePositionSignal;
+  private final int turnPositionSignal;
+
+  // Running circular mean of the offset between the relative and absolute encoders
+  private double offsetMeanCos = 1.0;
+  private double offsetMeanSin = 0.0;
+
+  // Rezero in progress: offset samples still to be averaged, and the sum of those taken so far
+  private int rezeroSamplesRemaining = 0;
+  private double rezeroOffsetCos = 0.0;
+  private double rezeroOffsetSin = 0.0;
 
   // Connection debouncers
   private final Debouncer driveConnectedDebounce =
@@ -94,9 +106,16 @@ public class ModuleIOSpark implements ModuleIO {
       new Debouncer(0.5, Debouncer.DebounceType.kFalling);
 
   private final int moduleIndex;
+  private final CompletableFuture<Void> turnConfigured;
+  private final SparkSetpointCache driveSetpoints;
+  private final SparkSetpointCache turnSetpoints;
+  private final SparkFaultCounter driveFaults;
+  private final SparkFaultCounter turnFaults;
 
   public ModuleIOSpark(int module) {
     moduleIndex = module;
+    driveSetpoints = new SparkSetpointCache("Module" + module + "/Drive");
+    turnSetpoints = new SparkSetpointCache("Module" + module + "/Turn");
 
     zeroRotation =
         switch (module) {
@@ -126,6 +145,8 @@ public class ModuleIOSpark implements ModuleIO {
               default -> 0;
             },
             MotorType.kBrushless);
+    driveFaults = new SparkFaultCounter("Module" + module + "/Drive", driveSpark);
+    turnFaults = new SparkFaultCounter("Module" + module + "/Turn", turnSpark);
     driveEncoder = driveSpark.getEncoder();
     turnRelativeEncoder = turnSpark.getEncoder();
     turnAbsoluteEncoder =
@@ -137,6 +158,9 @@ public class ModuleIOSpark implements ModuleIO {
               case 3 -> DriveConstants.backRightTurnEncoderId;
               default -> 0;
             });
+    // Average in the FPGA, which samples far faster than the main loop could
+    turnAbsoluteEncoder.setOversampleBits(turnAbsoluteEncoderOversampleBits);
+    turnAbsoluteEncoder.setAverageBits(turnAbsoluteEncoderAverageBits);
     driveController = driveSpark.getClosedLoopController();
     turnController = turnSpark.getClosedLoopController();
 
@@ -159,22 +183,12 @@ public class ModuleIOSpark implements ModuleIO {
         .pidf(
             driveKp, 0.0,
             driveKd, 0.0);
-    driveConfig
-        .signals
-        .primaryEncoderPositionAlwaysOn(true)
-        .primaryEncoderPositionPeriodMs((int) (1000.0 / odometryFrequency))
-        .primaryEncoderVelocityAlwaysOn(true)
-        .primaryEncoderVelocityPeriodMs(20)
-        .appliedOutputPeriodMs(20)
-        .busVoltagePeriodMs(20)
-        .outputCurrentPeriodMs(20);
-    tryUntilOk(
-        driveSpark,
-        5,
-        () ->
-            driveSpark.configure(
-                driveConfig, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters));
-    tryUntilOk(driveSpark, 5, () -> driveEncoder.setPosition(0.0));
+    SparkConfigService.getInstance()
+        .configure(
+            "Module" + module + "/Drive",
+            driveSpark,
+            driveConfig,
+            () -> tryUntilOk(driveSpark, 5, () -> driveEncoder.setPosition(0.0)));
 
     // Configure turn motor
     var turnConfig = new SparkMaxConfig();
@@ -197,133 +211,188 @@ public class ModuleIOSpark implements ModuleIO {
             turnPIDMinInput * DriveConstants.turnMotorReduction,
             turnPIDMaxInput * DriveConstants.turnMotorReduction)
         .pidf(turnKp, 0.0, turnKd, 0.0);
-    turnConfig
-        .signals
-        .primaryEncoderPositionAlwaysOn(true)
-        .primaryEncoderPositionPeriodMs((int) (1000.0 / odometryFrequency))
-        .primaryEncoderVelocityAlwaysOn(true)
-        .primaryEncoderVelocityPeriodMs(20)
-        .appliedOutputPeriodMs(20)
-        .busVoltagePeriodMs(20)
-        .outputCurrentPeriodMs(20);
-    tryUntilOk(
-        turnSpark,
-        5,
-        () ->
-            turnSpark.configure(
-                turnConfig, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters));
+    // Configured in parallel with the other modules. The turn encoder is rezeroed by the module
+    // once this completes.
+    turnConfigured =
+        SparkConfigService.getInstance()
+            .configure("Module" + module + "/Turn", turnSpark, turnConfig, null);
 
-    rezeroTurnEncoder();
+    // Status frame periods are set per robot mode by the budget
+    SparkStatusFrameBudget.getInstance()
+        .register("Module" + moduleIndex + "/Drive", driveSpark, Priority.HIGH, true, false);
+    SparkStatusFrameBudget.getInstance()
+        .register("Module" + moduleIndex + "/Turn", turnSpark, Priority.HIGH, true, false);
 
-    // Create odometry queues
-    timestampQueue = SparkOdometryThread.getInstance().makeTimestampQueue();
-    drivePositionQueue =
-        SparkOdometryThread.getInstance().registerSignal(driveSpark, driveEncoder::getPosition);
-    turnPositionQueue =
+    // Register odometry signals
+    drivePositionSignal =
+        SparkOdometryThread.getInstance()
+            .registerSignal(
+                "Module" + moduleIndex + "/DrivePosition", driveSpark, driveEncoder::getPosition);
+    turnPositionSignal =
         SparkOdometryThread.getInstance()
             .registerSignal(
+                "Module" + moduleIndex + "/TurnPosition",
                 turnSpark,
                 () -> turnRelativeEncoder.getPosition() / DriveConstants.turnMotorReduction);
   }
 
   @Override
   public void updateInputs(ModuleIOInputs inputs) {
-    // Update drive inputs
-    sparkStickyFault = false;
-    ifOk(driveSpark, driveEncoder::getPosition, (value) -> inputs.drivePositionRad = value);
-    ifOk(driveSpark, driveEncoder::getVelocity, (value) -> inputs.driveVelocityRadPerSec = value);
-    ifOk(
-        driveSpark,
-        new DoubleSupplier[] {driveSpark::getAppliedOutput, driveSpark::getBusVoltage},
-        (values) -> inputs.driveAppliedVolts = values[0] * values[1]);
-    ifOk(driveSpark, driveSpark::getOutputCurrent, (value) -> inputs.driveCurrentAmps = value);
-    inputs.driveConnected = driveConnectedDebounce.calculate(!sparkStickyFault);
+    // Update drive inputs, keeping the previous value of any read that fails
+    driveFaults.startGroup();
+    inputs.drivePositionRad = driveFaults.read(Signal.POSITION, inputs.drivePositionRad);
+    inputs.driveVelocityRadPerSec =
+        driveFaults.read(Signal.VELOCITY, inputs.driveVelocityRadPerSec);
+    double driveAppliedVolts =
+        driveFaults.read(Signal.APPLIED_OUTPUT, Double.NaN)
+            * driveFaults.read(Signal.BUS_VOLTAGE, Double.NaN);
+    if (!Double.isNaN(driveAppliedVolts)) {
+      inputs.driveAppliedVolts = driveAppliedVolts;
+    }
+    inputs.driveCurrentAmps = driveFaults.read(Signal.OUTPUT_CURRENT, inputs.driveCurrentAmps);
+    inputs.driveConnected = driveConnectedDebounce.calculate(driveFaults.isGroupOk());
 
-    // Update turn inputs
-    sparkStickyFault = false;
-    ifOk(
-        turnSpark,
-        () -> getTurnPosition().getRadians(),
-        (value) -> inputs.turnPosition = new Rotation2d(value));
-    ifOk(
-        turnSpark,
-        turnRelativeEncoder::getVelocity,
-        (value) -> inputs.turnVelocityRadPerSec = value);
-    ifOk(
-        turnSpark,
-        new DoubleSupplier[] {turnSpark::getAppliedOutput, turnSpark::getBusVoltage},
-        (values) -> inputs.turnAppliedVolts = values[0] * values[1]);
-    ifOk(turnSpark, turnSpark::getOutputCurrent, (value) -> inputs.turnCurrentAmps = value);
-    inputs.turnConnected = turnConnectedDebounce.calculate(!sparkStickyFault);
-    inputs.relativeRotationOffset = relativeEncoderOffset;
-    inputs.rawRelativeTurnPosition = new Rotation2d(turnRelativeEncoder.getPosition());
-    inputs.rawAbsoluteTurnPosition = getRawAbsoluteTurnPosition();
-    inputs.absoluteTurnPosition = getAbsoluteTurnPosition();
+    // Update turn inputs. The absolute encoder is only read here at the main loop rate, and each
+    // read is paired with the relative encoder to track the offset between them.
+    turnFaults.startGroup();
+    double rawTurnPosition = turnFaults.read(Signal.POSITION, Double.NaN);
+    double rawAbsoluteTurnPosition = getRawAbsoluteTurnPositionRad();
+    double absoluteTurnPosition =
+        MathUtil.angleModulus(rawAbsoluteTurnPosition - zeroRotation.getRadians());
+    if (!Double.isNaN(rawTurnPosition)) {
+      addOffsetSample(rawTurnPosition / DriveConstants.turnMotorReduction - absoluteTurnPosition);
+      inputs.rawRelativeTurnPositionRad = rawTurnPosition;
+      inputs.turnPositionRad = getTurnPositionRad(rawTurnPosition);
+    }
+    inputs.turnVelocityRadPerSec = turnFaults.read(Signal.VELOCITY, inputs.turnVelocityRadPerSec);
+    double turnAppliedVolts =
+        turnFaults.read(Signal.APPLIED_OUTPUT, Double.NaN)
+            * turnFaults.read(Signal.BUS_VOLTAGE, Double.NaN);
+    if (!Double.isNaN(turnAppliedVolts)) {
+      inputs.turnAppliedVolts = turnAppliedVolts;
+    }
+    inputs.turnCurrentAmps = turnFaults.read(Signal.OUTPUT_CURRENT, inputs.turnCurrentAmps);
+    inputs.turnConnected = turnConnectedDebounce.calculate(turnFaults.isGroupOk());
+    inputs.relativeRotationOffsetRad = relativeEncoderOffsetRad;
+    inputs.rawAbsoluteTurnPositionRad = rawAbsoluteTurnPosition;
+    inputs.absoluteTurnPositionRad = absoluteTurnPosition;
+    inputs.turnEncoderDriftRad =
+        MathUtil.angleModulus(Math.atan2(offsetMeanSin, offsetMeanCos) - relativeEncoderOffsetRad);
 
-    // Update odometry inputs
-    inputs.odometryTimestamps =
-        timestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryDrivePositionsRad =
-        drivePositionQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryTurnPositions =
-        turnPositionQueue.stream()
-            .map((Double value) -> new Rotation2d(value).minus(zeroRotation))
-            .toArray(Rotation2d[]::new);
-    timestampQueue.clear();
-    drivePositionQueue.clear();
-    turnPositionQueue.clear();
+    // Update odometry inputs. The arrays are new each cycle, since the logger may still be writing
+    // out the previous ones.
+    var frames = SparkOdometryThread.getInstance().getFrames();
+    int sampleCount = frames.count();
+    inputs.odometryTimestamps = new double[sampleCount];
+    inputs.odometryDrivePositionsRad = new double[sampleCount];
+    inputs.odometryTurnPositionsRad = new double[sampleCount];
+    inputs.odometryValid = new boolean[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      inputs.odometryTimestamps[i] = frames.timestamp(i);
+      inputs.odometryValid[i] =
+          frames.isValid(i, drivePositionSignal) && frames.isValid(i, turnPositionSignal);
+      inputs.odometryDrivePositionsRad[i] = frames.value(i, drivePositionSignal);
+      inputs.odometryTurnPositionsRad[i] =
+          MathUtil.angleModulus(frames.value(i, turnPositionSignal) - zeroRotation.getRadians());
+    }
   }
 
   @Override
   public void setDriveOpenLoop(double output) {
-    driveSpark.setVoltage(output);
+    if (driveSetpoints.shouldSend(ControlType.kVoltage, output)) {
+      synchronized (driveSpark) {
+        driveSpark.setVoltage(output);
+      }
+    }
   }
 
   @Override
   public void setTurnOpenLoop(double output) {
-    turnSpark.setVoltage(output);
+    if (turnSetpoints.shouldSend(ControlType.kVoltage, output)) {
+      synchronized (turnSpark) {
+        turnSpark.setVoltage(output);
+      }
+    }
   }
 
   @Override
   public void setDriveVelocity(double velocityRadPerSec) {
     double ffVolts = driveKs * Math.signum(velocityRadPerSec) + driveKv * velocityRadPerSec;
-    driveController.setReference(
-        velocityRadPerSec,
-        ControlType.kVelocity,
-        ClosedLoopSlot.kSlot0,
-        ffVolts,
-        ArbFFUnits.kVoltage);
+    if (driveSetpoints.shouldSend(ControlType.kVelocity, velocityRadPerSec, ffVolts)) {
+      synchronized (driveSpark) {
+        driveController.setReference(
+            velocityRadPerSec,
+            ControlType.kVelocity,
+            ClosedLoopSlot.kSlot0,
+            ffVolts,
+            ArbFFUnits.kVoltage);
+      }
+    }
   }
 
   @Override
   public void setTurnPosition(Rotation2d rotation) {
     double setpoint =
         MathUtil.inputModulus(
-                rotation.plus(relativeEncoderOffset).getRadians(), turnPIDMinInput, turnPIDMaxInput)
+                rotation.getRadians() + relativeEncoderOffsetRad, turnPIDMinInput, turnPIDMaxInput)
             * DriveConstants.turnMotorReduction;
-    turnController.setReference(setpoint, ControlType.kPosition);
+    if (turnSetpoints.shouldSend(ControlType.kPosition, setpoint)) {
+      synchronized (turnSpark) {
+        turnController.setReference(setpoint, ControlType.kPosition);
+      }
+    }
   }
 
   @Override
   public void rezeroTurnEncoder() {
-    relativeEncoderOffset =
-        Rotation2d.fromRadians(
-                turnRelativeEncoder.getPosition() / DriveConstants.turnMotorReduction)
-            .minus(getAbsoluteTurnPosition());
+    turnConfigured.join(); // The inversion changes the direction of the relative encoder
+
+    // Rezero from a single sample right away, then refine it with one sample per cycle rather
+    // than blocking the main loop to take them all now
+    double relativePosition;
+    synchronized (turnSpark) {
+      relativePosition = turnRelativeEncoder.getPosition();
+    }
+    rezeroSamplesRemaining = turnRezeroSamples;
+    rezeroOffsetCos = 0.0;
+    rezeroOffsetSin = 0.0;
+    addOffsetSample(
+        relativePosition / DriveConstants.turnMotorReduction - getAbsoluteTurnPositionRad());
+  }
+
+  /**
+   * Adds a sample of the offset between the relative and absolute encoders. While rezeroing, the
+   * offset is the mean of the samples so far, added as unit vectors so ones on either side of the
+   * encoder wrap don't cancel out. Otherwise the sample only updates the drift estimate.
+   */
+  private void addOffsetSample(double offset) {
+    if (rezeroSamplesRemaining > 0) {
+      rezeroSamplesRemaining--;
+      rezeroOffsetCos += Math.cos(offset);
+      rezeroOffsetSin += Math.sin(offset);
+      relativeEncoderOffsetRad = Math.atan2(rezeroOffsetSin, rezeroOffsetCos);
+
+      // Restart the drift estimate from the new offset
+      offsetMeanCos = Math.cos(relativeEncoderOffsetRad);
+      offsetMeanSin = Math.sin(relativeEncoderOffsetRad);
+    } else {
+      offsetMeanCos += (Math.cos(offset) - offsetMeanCos) * turnDriftSmoothing;
+      offsetMeanSin += (Math.sin(offset) - offsetMeanSin) * turnDriftSmoothing;
+    }
   }
 
-  public Rotation2d getRawAbsoluteTurnPosition() {
-    return new Rotation2d(
-        turnAbsoluteEncoder.getVoltage() / RobotController.getVoltage5V() * (2.0 * Math.PI));
+  public double getRawAbsoluteTurnPositionRad() {
+    return turnAbsoluteEncoder.getAverageVoltage()
+        / RobotController.getVoltage5V()
+        * (2.0 * Math.PI);
   }
 
-  public Rotation2d getAbsoluteTurnPosition() {
-    return getRawAbsoluteTurnPosition().minus(zeroRotation);
+  public double getAbsoluteTurnPositionRad() {
+    return MathUtil.angleModulus(getRawAbsoluteTurnPositionRad() - zeroRotation.getRadians());
   }
 
-  public Rotation2d getTurnPosition() {
-    return Rotation2d.fromRadians(
-            turnRelativeEncoder.getPosition() / DriveConstants.turnMotorReduction)
-        .minus(relativeEncoderOffset);
+  private double getTurnPositionRad(double rawRelativePosition) {
+    return MathUtil.angleModulus(
+        rawRelativePosition / DriveConstants.turnMotorReduction - relativeEncoderOffsetRad);
   }
 }
@@ -0,0 +1,145 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+/**
+ * Struct-of-arrays ring buffer of odometry frames, where each frame holds one timestamp plus the
+ * value of every registered signal for a single sample tick. Frames are written by a single
+ * producer thread and drained in batches by a single consumer thread without locking.
+ *
+ * <p>Each frame also stores a bit mask with one validity bit per signal, so a read error on one
+ * device only invalidates that device's values instead of the whole frame.
+ */
+public class OdometryFrameBuffer {
+  /** Maximum number of signals per frame, limited by the width of the validity mask. */
+  public static final int maxSignals = Long.SIZE;
+
+  private final int signalCount;
+  private final double[] timestamps;
+  private final long[] validMasks;
+  private final double[] values;
+  private final int mask;
+
+  private volatile long head = 0; // Next frame to write, owned by the producer
+  private volatile long tail = 0; // Next frame to read, owned by the consumer
+
+  /**
+   * Creates a new frame buffer.
+   *
+   * @param signalCount Number of signal values stored in each frame.
+   * @param minCapacity Minimum number of frames to hold, rounded up to a power of two.
+   */
+  public OdometryFrameBuffer(int signalCount, int minCapacity) {
+    if (signalCount > maxSignals) {
+      throw new IllegalArgumentException("Odometry frames support at most 64 signals.");
+    }
+    int capacity = minCapacity <= 1 ? 1 : Integer.highestOneBit(minCapacity - 1) << 1;
+    this.signalCount = signalCount;
+    timestamps = new double[capacity];
+    validMasks = new long[capacity];
+    values = new double[capacity * signalCount];
+    mask = capacity - 1;
+  }
+
+  /** Returns the number of signal values stored in each frame. */
+  public int getSignalCount() {
+    return signalCount;
+  }
+
+  /** Returns the number of frames waiting to be drained. */
+  public int size() {
+    return (int) (head - tail);
+  }
+
+  /** Returns the number of frames the buffer can hold. */
+  public int capacity() {
+    return timestamps.length;
+  }
+
+  /**
+   * Adds a frame. Must only be called from the producer thread.
+   *
+   * @param timestamp The FPGA timestamp of the sample tick in seconds.
+   * @param validMask Bit mask with bit {@code i} set if signal {@code i} was read successfully.
+   * @param frameValues The signal values, indexed by signal.
+   * @return Whether the frame was stored, false if the buffer was full.
+   */
+  public boolean offer(double timestamp, long validMask, double[] frameValues) {
+    long currentHead = head;
+    if (currentHead - tail >= timestamps.length) {
+      return false;
+    }
+    int index = (int) currentHead & mask;
+    timestamps[index] = timestamp;
+    validMasks[index] = validMask;
+    System.arraycopy(frameValues, 0, values, index * signalCount, signalCount);
+    head = currentHead + 1;
+    return true;
+  }
+
+  /**
+   * Moves all available frames into the provided batch, oldest first. Must only be called from the
+   * consumer thread.
+   *
+   * @return The number of frames drained.
+   */
+  public int drainTo(Frames frames) {
+    long currentTail = tail;
+    int count = (int) Math.min(head - currentTail, frames.timestamps.length);
+    for (int i = 0; i < count; i++) {
+      int index = (int) (currentTail + i) & mask;
+      frames.timestamps[i] = timestamps[index];
+      frames.validMasks[i] = validMasks[index];
+      System.arraycopy(values, index * signalCount, frames.values, i * signalCount, signalCount);
+    }
+    frames.count = count;
+    tail = currentTail + count;
+    return count;
+  }
+
+  /** A batch of frames drained from the buffer, reused between cycles by the consumer. */
+  public static class Frames {
+    private final int signalCount;
+    private final double[] timestamps;
+    private final long[] validMasks;
+    private final double[] values;
+    private int count = 0;
+
+    public Frames(int signalCount, int capacity) {
+      this.signalCount = signalCount;
+      timestamps = new double[capacity];
+      validMasks = new long[capacity];
+      values = new double[capacity * signalCount];
+    }
+
+    /** Returns the maximum number of frames the batch can hold. */
+    public int capacity() {
+      return timestamps.length;
+    }
+
+    /** Returns the number of frames in the batch. */
+    public int count() {
+      return count;
+    }
+
+    /** Returns the timestamp of a frame in seconds. */
+    public double timestamp(int frame) {
+      return timestamps[frame];
+    }
+
+    /** Returns whether a signal was read successfully in a frame. */
+    public boolean isValid(int frame, int signal) {
+      return (validMasks[frame] & (1L << signal)) != 0;
+    }
+
+    /** Returns the value of a signal in a frame. Only meaningful if the signal is valid. */
+    public double value(int frame, int signal) {
+      return values[frame * signalCount + signal];
+    }
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import static frc.robot.subsystems.drive.DriveConstants.maxGyroSampleGapSecs;
+import static frc.robot.subsystems.drive.DriveConstants.minOdometryModules;
+import static frc.robot.subsystems.drive.DriveConstants.slipVelocityThreshold;
+
+import edu.wpi.first.math.MathUtil;
+import java.util.Arrays;
+
+/**
+ * Integrates the odometry samples received each cycle into the pose estimator and pose history.
+ * Each sample's module deltas pass through the {@link WheelSlipFilter}, and are paired with the
+ * gyro yaw at the sample time from the {@link GyroSampleAligner}. Nothing is allocated per sample.
+ */
+class OdometryIntegrator {
+  /** Receives each sample's module deltas and angles before they are filtered. */
+  interface RawSampleListener {
+    void accept(double timestamp, double[] distanceDeltas, double[] anglesRad, boolean[] valid);
+  }
+
+  private final WheelSlipFilter slipFilter;
+  private final GyroSampleAligner gyroAligner = new GyroSampleAligner(maxGyroSampleGapSecs);
+  private final DrivePoseEstimator poseEstimator;
+  private final PoseHistory poseHistory;
+  private final RawSampleListener rawSampleListener; // Null if unused
+
+  private final double[] moduleDeltaDistances;
+  private final double[] moduleAnglesRad;
+  private final boolean[] moduleSampleValid;
+  private final double[] lastRawModuleDistances; // Last valid encoder reading, NaN before any
+  private final double[] lastModuleDistances;
+  private final double[] lastModuleAnglesRad;
+  private final double[] estimatedPose = new double[3];
+  private double rawGyroRad = 0.0;
+  private boolean lastSampleGyroValid = false;
+
+  /**
+   * Creates a new integrator.
+   *
+   * @param kinematics The kinematics of the drive.
+   * @param poseEstimator The estimator updated with each usable sample.
+   * @param poseHistory The history each updated estimate is added to.
+   * @param lastModuleDistances The filtered module distances passed to the estimator in meters,
+   *     updated in place.
+   * @param lastModuleAnglesRad The filtered module angles passed to the estimator in radians,
+   *     updated in place.
+   * @param rawSampleListener Receives each sample before it is filtered, or null.
+   */
+  OdometryIntegrator(
+      SwerveOdometryKinematics kinematics,
+      DrivePoseEstimator poseEstimator,
+      PoseHistory poseHistory,
+      double[] lastModuleDistances,
+      double[] lastModuleAnglesRad,
+      RawSampleListener rawSampleListener) {
+    slipFilter = new WheelSlipFilter(kinematics, slipVelocityThreshold, minOdometryModules);
+    this.poseEstimator = poseEstimator;
+    this.poseHistory = poseHistory;
+    this.lastModuleDistances = lastModuleDistances;
+    this.lastModuleAnglesRad = lastModuleAnglesRad;
+    this.rawSampleListener = rawSampleListener;
+
+    int moduleCount = kinematics.getModuleCount();
+    moduleDeltaDistances = new double[moduleCount];
+    moduleAnglesRad = new double[moduleCount];
+    moduleSampleValid = new boolean[moduleCount];
+    lastRawModuleDistances = new double[moduleCount];
+    Arrays.fill(lastRawModuleDistances, Double.NaN);
+  }
+
+  /** Integrates every sample the modules and gyro received this cycle. */
+  void integrate(Module[] modules, GyroIO.GyroIOInputs gyroInputs) {
+    double[] sampleTimestamps =
+        modules[0].getOdometryTimestamps(); // All signals share one frame per sample
+    int sampleCount = sampleTimestamps.length;
+    gyroAligner.setSamples(
+        gyroInputs.odometryYawTimestamps,
+        gyroInputs.odometryYawPositions,
+        gyroInputs.odometryYawValid);
+    for (int i = 0; i < sampleCount; i++) {
+      // Read wheel deltas from each module. Modules whose sample failed, or that have no earlier
+      // reading to take a delta from, are filled in by the slip filter.
+      for (int moduleIndex = 0; moduleIndex < modules.length; moduleIndex++) {
+        moduleSampleValid[moduleIndex] =
+            modules[moduleIndex].isOdometrySampleValid(i)
+                && !Double.isNaN(lastRawModuleDistances[moduleIndex]);
+        if (modules[moduleIndex].isOdometrySampleValid(i)) {
+          double distanceMeters = modules[moduleIndex].getOdometryPositionMeters(i);
+          moduleDeltaDistances[moduleIndex] = distanceMeters - lastRawModuleDistances[moduleIndex];
+          moduleAnglesRad[moduleIndex] = modules[moduleIndex].getOdometryAngleRad(i);
+          lastRawModuleDistances[moduleIndex] = distanceMeters;
+        } else {
+          moduleDeltaDistances[moduleIndex] = 0.0;
+          moduleAnglesRad[moduleIndex] = lastModuleAnglesRad[moduleIndex];
+        }
+      }
+
+      if (rawSampleListener != null) {
+        rawSampleListener.accept(
+            sampleTimestamps[i], moduleDeltaDistances, moduleAnglesRad, moduleSampleValid);
+      }
+
+      // ! GYRO
+      // Find the gyro angle, interpolated to the module sample time
+      boolean gyroValid = gyroAligner.align(sampleTimestamps[i]) && gyroInputs.connected;
+      // boolean gyroValid = false;
+      double gyroDeltaTheta =
+          gyroValid && lastSampleGyroValid
+              ? MathUtil.angleModulus(gyroAligner.getAlignedPositionRad() - rawGyroRad)
+              : Double.NaN;
+      lastSampleGyroValid = gyroValid;
+
+      // Replace the deltas of slipping or lifted modules with the motion the rest agree on
+      boolean modulesUsable =
+          slipFilter.filter(
+              sampleTimestamps[i],
+              moduleDeltaDistances,
+              moduleAnglesRad,
+              moduleSampleValid,
+              gyroDeltaTheta);
+      if (modulesUsable) {
+        for (int moduleIndex = 0; moduleIndex < modules.length; moduleIndex++) {
+          lastModuleDistances[moduleIndex] += moduleDeltaDistances[moduleIndex];
+          lastModuleAnglesRad[moduleIndex] = moduleAnglesRad[moduleIndex];
+        }
+      } else {
+        // Keep the distance valid modules covered, so it reaches the estimator with the next
+        // usable sample instead of being lost
+        for (int moduleIndex = 0; moduleIndex < modules.length; moduleIndex++) {
+          if (moduleSampleValid[moduleIndex]) {
+            lastModuleDistances[moduleIndex] += moduleDeltaDistances[moduleIndex];
+            lastModuleAnglesRad[moduleIndex] = moduleAnglesRad[moduleIndex];
+          }
+        }
+      }
+      if (gyroValid) {
+        rawGyroRad = gyroAligner.getAlignedPositionRad();
+      } else if (modulesUsable) {
+        // Use the angle delta from the kinematics and module deltas
+        rawGyroRad += slipFilter.getDeltaTheta();
+      } else {
+        // Nothing usable in this sample
+        continue;
+      }
+
+      // Apply update (gyro-only if every module sample failed). The estimator copies the
+      // positions, so the same arrays are safely reused for the next sample.
+      poseEstimator.update(
+          sampleTimestamps[i], rawGyroRad, lastModuleDistances, lastModuleAnglesRad);
+      poseEstimator.getEstimatedPosition(estimatedPose);
+      poseHistory.add(sampleTimestamps[i], estimatedPose[0], estimatedPose[1], estimatedPose[2]);
+    }
+    gyroAligner.finish();
+    slipFilter.logMetrics();
+  }
+
+  /** Returns the gyro angle in radians last passed to the estimator, before its offset. */
+  double getRawGyroRad() {
+    return rawGyroRad;
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import static frc.robot.subsystems.drive.DriveConstants.canUtilizationBackoffThreshold;
+import static frc.robot.subsystems.drive.DriveConstants.canUtilizationRecoverThreshold;
+import static frc.robot.subsystems.drive.DriveConstants.minOdometryFrequency;
+import static frc.robot.subsystems.drive.DriveConstants.odometryFrequency;
+import static frc.robot.subsystems.drive.DriveConstants.odometryFrequencyAuto;
+import static frc.robot.subsystems.drive.DriveConstants.odometryFrequencyDisabled;
+import static frc.robot.subsystems.drive.DriveConstants.odometryFrequencyTeleop;
+
+/**
+ * Chooses the odometry sample rate from the robot mode and the measured CAN bus utilization.
+ *
+ * <p>Each mode has a target rate, which is applied as soon as the mode changes. While the bus is
+ * above {@link DriveConstants#canUtilizationBackoffThreshold} the rate steps down toward {@link
+ * DriveConstants#minOdometryFrequency}, and the rate that overloaded the bus is remembered as a
+ * ceiling. Below {@link DriveConstants#canUtilizationRecoverThreshold} the rate steps back up to
+ * the target. Between the two thresholds it only steps up while the next step stays under the
+ * ceiling, so it recovers without returning to the rate that overloaded the bus. The ceiling is
+ * forgotten after a while, or on the next mode change. Steps are spaced by a hold time so
+ * reconfiguring status frames does not itself load the bus.
+ */
+public class OdometryRateController {
+  private static final double backoffFactor = 0.8;
+  private static final double recoverFactor = 1.25;
+  private static final double holdTimeSecs = 1.0;
+  private static final double ceilingExpirySecs = 10.0;
+
+  private double frequency = odometryFrequency;
+  private double target = Double.NaN;
+  private double lastChangeTimestamp = Double.NEGATIVE_INFINITY;
+  private double ceiling = Double.POSITIVE_INFINITY; // Rate that last overloaded the bus
+  private double ceilingTimestamp = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Updates the chosen rate.
+   *
+   * @param timestamp The current timestamp in seconds.
+   * @param isDisabled Whether the robot is disabled.
+   * @param isAutonomous Whether the robot is in autonomous.
+   * @param canUtilization The CAN bus utilization, from 0 to 1.
+   * @return The odometry sample rate in Hz.
+   */
+  public double update(
+      double timestamp, boolean isDisabled, boolean isAutonomous, double canUtilization) {
+    double modeTarget =
+        isDisabled
+            ? odometryFrequencyDisabled
+            : (isAutonomous ? odometryFrequencyAuto : odometryFrequencyTeleop);
+
+    // Jump straight to the target of a new mode, starting over without a ceiling
+    if (modeTarget != target) {
+      target = modeTarget;
+      ceiling = Double.POSITIVE_INFINITY;
+      return setFrequency(timestamp, target);
+    }
+    if (timestamp - ceilingTimestamp >= ceilingExpirySecs) {
+      ceiling = Double.POSITIVE_INFINITY;
+    }
+    if (timestamp - lastChangeTimestamp < holdTimeSecs) {
+      return frequency;
+    }
+
+    if (canUtilization > canUtilizationBackoffThreshold) {
+      ceiling = frequency;
+      ceilingTimestamp = timestamp;
+      return setFrequency(timestamp, Math.max(frequency * backoffFactor, minOdometryFrequency));
+    }
+    if (frequency < target) {
+      double next = Math.min(frequency * recoverFactor, target);
+      if (canUtilization < canUtilizationRecoverThreshold || next < ceiling) {
+        return setFrequency(timestamp, next);
+      }
+    }
+    return frequency;
+  }
+
+  /** Returns the most recently chosen odometry sample rate in Hz. */
+  public double getFrequency() {
+    return frequency;
+  }
+
+  private double setFrequency(double timestamp, double newFrequency) {
+    if (newFrequency != frequency) {
+      frequency = newFrequency;
+      lastChangeTimestamp = timestamp;
+    }
+    return frequency;
+  }
+}
@@ -0,0 +1,163 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Fixed-size ring buffer of timestamped poses stored as primitives, for latency-compensated
+ * lookups of where the robot was at a past time.
+ *
+ * <p>Poses are added by a single writer thread. Lookups may be made from any thread: they are
+ * guarded by a sequence lock, so readers never block the writer and retry if a write happened
+ * while they were reading. Lookups do not allocate.
+ */
+public class PoseHistory {
+  private final double[] timestamps;
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] thetas;
+  private final int mask;
+
+  private volatile long sequence = 0; // Odd while a write is in progress
+  private long head = 0; // Next index to write
+  private int size = 0;
+
+  /**
+   * Creates a new pose history.
+   *
+   * @param minCapacity Minimum number of poses to hold, rounded up to a power of two.
+   */
+  public PoseHistory(int minCapacity) {
+    int capacity = minCapacity <= 1 ? 1 : Integer.highestOneBit(minCapacity - 1) << 1;
+    timestamps = new double[capacity];
+    xs = new double[capacity];
+    ys = new double[capacity];
+    thetas = new double[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * Adds a pose. Must only be called from the writer thread, with increasing timestamps.
+   *
+   * @param timestamp The timestamp of the pose in seconds.
+   * @param x The X position in meters.
+   * @param y The Y position in meters.
+   * @param theta The heading in radians.
+   */
+  public void add(double timestamp, double x, double y, double theta) {
+    sequence++;
+    VarHandle.storeStoreFence();
+    int index = (int) head & mask;
+    timestamps[index] = timestamp;
+    xs[index] = x;
+    ys[index] = y;
+    thetas[index] = theta;
+    head++;
+    size = Math.min(size + 1, timestamps.length);
+    sequence++;
+  }
+
+  /** Removes all poses. Must only be called from the writer thread. */
+  public void clear() {
+    sequence++;
+    VarHandle.storeStoreFence();
+    size = 0;
+    sequence++;
+  }
+
+  /**
+   * Finds the pose at a past timestamp, interpolating between the poses on either side. Timestamps
+   * outside the stored range are clamped to the oldest or newest pose. Safe to call from any
+   * thread.
+   *
+   * @param timestamp The timestamp to look up in seconds.
+   * @param poseOut Array of at least three elements, filled with x, y and theta.
+   * @return Whether the history held any poses.
+   */
+  public boolean sample(double timestamp, double[] poseOut) {
+    while (true) {
+      long startSequence = sequence;
+      if ((startSequence & 1) != 0) {
+        Thread.onSpinWait();
+        continue;
+      }
+      boolean found = read(timestamp, poseOut);
+      VarHandle.loadLoadFence();
+      if (sequence == startSequence) {
+        return found;
+      }
+    }
+  }
+
+  /** Reads without synchronization; the result is discarded by the caller if a write overlapped. */
+  private boolean read(double timestamp, double[] poseOut) {
+    int count = size;
+    if (count <= 0) {
+      return false;
+    }
+    long newest = head - 1;
+    long oldest = head - count;
+    if (timestamp >= timestamps[(int) newest & mask]) {
+      copy((int) newest & mask, poseOut);
+      return true;
+    }
+    if (timestamp <= timestamps[(int) oldest & mask]) {
+      copy((int) oldest & mask, poseOut);
+      return true;
+    }
+
+    // Poses are close to evenly spaced, so guess the index from the time range, walk a few steps
+    // from the guess, and fall back to a binary search if the spacing was uneven
+    double newestTimestamp = timestamps[(int) newest & mask];
+    double oldestTimestamp = timestamps[(int) oldest & mask];
+    double fraction = (timestamp - oldestTimestamp) / (newestTimestamp - oldestTimestamp);
+    long lower = oldest + (long) (MathUtil.clamp(fraction, 0.0, 1.0) * (count - 1));
+    lower = Math.max(oldest, Math.min(lower, newest - 1));
+    for (int step = 0; step < 4; step++) {
+      if (timestamps[(int) lower & mask] > timestamp && lower > oldest) {
+        lower--;
+      } else if (timestamps[(int) (lower + 1) & mask] < timestamp && lower < newest - 1) {
+        lower++;
+      } else {
+        break;
+      }
+    }
+    if (timestamps[(int) lower & mask] > timestamp
+        || timestamps[(int) (lower + 1) & mask] < timestamp) {
+      long low = oldest;
+      long high = newest - 1;
+      while (low < high) {
+        long mid = (low + high + 1) >>> 1;
+        if (timestamps[(int) mid & mask] <= timestamp) {
+          low = mid;
+        } else {
+          high = mid - 1;
+        }
+      }
+      lower = low;
+    }
+
+    // Interpolate between the bracketing poses
+    int a = (int) lower & mask;
+    int b = (int) (lower + 1) & mask;
+    double span = timestamps[b] - timestamps[a];
+    double t = span > 0.0 ? (timestamp - timestamps[a]) / span : 0.0;
+    poseOut[0] = xs[a] + (xs[b] - xs[a]) * t;
+    poseOut[1] = ys[a] + (ys[b] - ys[a]) * t;
+    poseOut[2] = thetas[a] + MathUtil.angleModulus(thetas[b] - thetas[a]) * t;
+    return true;
+  }
+
+  private void copy(int index, double[] poseOut) {
+    poseOut[0] = xs[index];
+    poseOut[1] = ys[index];
+    poseOut[2] = thetas[index];
+  }
+}
@@ -0,0 +1,322 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.util.Arrays;
+
+/**
+ * {@link DrivePoseEstimator} that follows the same math as the WPILib {@link
+ * edu.wpi.first.math.estimator.SwerveDrivePoseEstimator}, with all state kept in primitive fields
+ * and fixed-size ring buffers so odometry updates do not allocate.
+ *
+ * <p>Odometry poses are kept in a {@link PoseHistory}. Each vision measurement is stored as a
+ * correction from the odometry pose at its timestamp to the corrected pose, and discards any newer
+ * corrections. The current estimate is the latest correction applied to the current odometry pose,
+ * so a vision measurement costs one history lookup rather than a replay of every later sample.
+ */
+public class PrimitiveDrivePoseEstimator implements DrivePoseEstimator {
+  private static final double bufferDurationSecs = 1.5;
+  private static final int visionCapacity = 128; // Power of two
+  private static final double[] defaultStateStdDevs = {0.1, 0.1, 0.1};
+
+  private final int moduleCount;
+  private final SwerveOdometryKinematics kinematics;
+  private final boolean[] allModules;
+  private final double[] distanceDeltas;
+  private final double[] anglesRad;
+  private final double[] previousDistances;
+  private final double[] twist = new double[3];
+  private final double[] q = new double[3];
+
+  // Odometry
+  private double odometryX;
+  private double odometryY;
+  private double odometryTheta;
+  private double gyroOffsetRad;
+  private double previousAngleRad;
+  private final PoseHistory odometryBuffer;
+  private double newestOdometryTimestamp = Double.NaN;
+
+  // Vision corrections, oldest first: the corrected pose and the odometry pose it replaced
+  private final double[] visionTimestamps = new double[visionCapacity];
+  private final double[] visionX = new double[visionCapacity];
+  private final double[] visionY = new double[visionCapacity];
+  private final double[] visionTheta = new double[visionCapacity];
+  private final double[] replacedX = new double[visionCapacity];
+  private final double[] replacedY = new double[visionCapacity];
+  private final double[] replacedTheta = new double[visionCapacity];
+  private int visionStart = 0;
+  private int visionCount = 0;
+
+  // Estimate
+  private double estimateX;
+  private double estimateY;
+  private double estimateTheta;
+
+  private final double[] scratch = new double[3];
+
+  /**
+   * Creates a new estimator with the same default standard deviations as the WPILib estimator.
+   *
+   * @param moduleTranslations The location of each module relative to the robot center.
+   * @param odometryFrequency The highest odometry rate, used to size the odometry history.
+   * @param gyroAngle The current gyro angle.
+   * @param modulePositions The current module positions.
+   * @param initialPoseMeters The starting pose.
+   */
+  public PrimitiveDrivePoseEstimator(
+      Translation2d[] moduleTranslations,
+      double odometryFrequency,
+      Rotation2d gyroAngle,
+      SwerveModulePosition[] modulePositions,
+      Pose2d initialPoseMeters) {
+    moduleCount = moduleTranslations.length;
+    kinematics = new SwerveOdometryKinematics(moduleTranslations);
+    allModules = new boolean[moduleCount];
+    Arrays.fill(allModules, true);
+    distanceDeltas = new double[moduleCount];
+    anglesRad = new double[moduleCount];
+    previousDistances = new double[moduleCount];
+    odometryBuffer = new PoseHistory((int) Math.ceil(bufferDurationSecs * odometryFrequency));
+    for (int i = 0; i < 3; i++) {
+      q[i] = defaultStateStdDevs[i] * defaultStateStdDevs[i];
+    }
+    resetPosition(gyroAngle, modulePositions, initialPoseMeters);
+  }
+
+  @Override
+  public void update(
+      double timestampSeconds,
+      double gyroAngleRad,
+      double[] moduleDistancesMeters,
+      double[] moduleAnglesRad) {
+    // Fit the module deltas, then replace the heading change with the gyro's
+    double angleRad = gyroAngleRad + gyroOffsetRad;
+    for (int i = 0; i < moduleCount; i++) {
+      distanceDeltas[i] = moduleDistancesMeters[i] - previousDistances[i];
+      anglesRad[i] = moduleAnglesRad[i];
+      previousDistances[i] = moduleDistancesMeters[i];
+    }
+    if (!kinematics.solve(distanceDeltas, anglesRad, allModules, Double.NaN, twist)) {
+      twist[0] = 0.0;
+      twist[1] = 0.0;
+    }
+    double dtheta = MathUtil.angleModulus(angleRad - previousAngleRad);
+    exp(odometryX, odometryY, odometryTheta, twist[0], twist[1], dtheta, scratch);
+    odometryX = scratch[0];
+    odometryY = scratch[1];
+    odometryTheta = MathUtil.angleModulus(angleRad);
+    previousAngleRad = angleRad;
+
+    odometryBuffer.add(timestampSeconds, odometryX, odometryY, odometryTheta);
+    newestOdometryTimestamp = timestampSeconds;
+    updateEstimate();
+  }
+
+  @Override
+  public void addVisionMeasurement(
+      Pose2d visionRobotPoseMeters,
+      double timestampSeconds,
+      Matrix<N3, N1> visionMeasurementStdDevs) {
+    // Skip measurements older than the odometry history
+    if (Double.isNaN(newestOdometryTimestamp)
+        || newestOdometryTimestamp - bufferDurationSecs > timestampSeconds) {
+      return;
+    }
+
+    // Find the odometry pose and current estimate at the measurement time
+    odometryBuffer.sample(timestampSeconds, scratch);
+    double odometrySampleX = scratch[0];
+    double odometrySampleY = scratch[1];
+    double odometrySampleTheta = scratch[2];
+    int floor = floorVisionIndex(timestampSeconds);
+    if (floor >= 0) {
+      compensate(floor, odometrySampleX, odometrySampleY, odometrySampleTheta, scratch);
+    }
+    double sampleX = scratch[0];
+    double sampleY = scratch[1];
+    double sampleTheta = scratch[2];
+
+    // Move the estimate toward the measurement by the Kalman gain, along the twist between them
+    log(
+        sampleX,
+        sampleY,
+        sampleTheta,
+        visionRobotPoseMeters.getX(),
+        visionRobotPoseMeters.getY(),
+        visionRobotPoseMeters.getRotation().getRadians(),
+        twist);
+    for (int i = 0; i < 3; i++) {
+      double stdDev = visionMeasurementStdDevs.get(i, 0);
+      double r = stdDev * stdDev;
+      twist[i] *= q[i] == 0.0 ? 0.0 : q[i] / (q[i] + Math.sqrt(q[i] * r));
+    }
+    exp(sampleX, sampleY, sampleTheta, twist[0], twist[1], twist[2], scratch);
+
+    // Discard corrections at or after this one, which were based on the old estimate
+    while (visionCount > 0 && visionTimestamps[visionIndex(visionCount - 1)] >= timestampSeconds) {
+      visionCount--;
+    }
+    if (visionCount == visionCapacity) {
+      visionStart = visionIndex(1);
+      visionCount--;
+    }
+    int index = visionIndex(visionCount);
+    visionTimestamps[index] = timestampSeconds;
+    visionX[index] = scratch[0];
+    visionY[index] = scratch[1];
+    visionTheta[index] = scratch[2];
+    replacedX[index] = odometrySampleX;
+    replacedY[index] = odometrySampleY;
+    replacedTheta[index] = odometrySampleTheta;
+    visionCount++;
+
+    updateEstimate();
+  }
+
+  @Override
+  public void resetPosition(
+      Rotation2d gyroAngle, SwerveModulePosition[] modulePositions, Pose2d poseMeters) {
+    odometryX = poseMeters.getX();
+    odometryY = poseMeters.getY();
+    odometryTheta = poseMeters.getRotation().getRadians();
+    gyroOffsetRad = odometryTheta - gyroAngle.getRadians();
+    previousAngleRad = odometryTheta;
+    for (int i = 0; i < moduleCount; i++) {
+      previousDistances[i] = modulePositions[i].distanceMeters;
+    }
+    clearHistory();
+  }
+
+  @Override
+  public void resetRotation(Rotation2d rotation) {
+    gyroOffsetRad += MathUtil.angleModulus(rotation.getRadians() - odometryTheta);
+    odometryTheta = rotation.getRadians();
+    previousAngleRad = odometryTheta;
+    clearHistory();
+  }
+
+  @Override
+  public Pose2d getEstimatedPosition() {
+    return new Pose2d(estimateX, estimateY, Rotation2d.fromRadians(estimateTheta));
+  }
+
+  @Override
+  public void getEstimatedPosition(double[] poseOut) {
+    poseOut[0] = estimateX;
+    poseOut[1] = estimateY;
+    poseOut[2] = estimateTheta;
+  }
+
+  private void clearHistory() {
+    odometryBuffer.clear();
+    newestOdometryTimestamp = Double.NaN;
+    visionCount = 0;
+    updateEstimate();
+  }
+
+  private void updateEstimate() {
+    if (visionCount == 0) {
+      estimateX = odometryX;
+      estimateY = odometryY;
+      estimateTheta = odometryTheta;
+      return;
+    }
+    compensate(visionIndex(visionCount - 1), odometryX, odometryY, odometryTheta, scratch);
+    estimateX = scratch[0];
+    estimateY = scratch[1];
+    estimateTheta = MathUtil.angleModulus(scratch[2]);
+  }
+
+  private int visionIndex(int offset) {
+    return (visionStart + offset) & (visionCapacity - 1);
+  }
+
+  /** Returns the ring index of the newest correction at or before a timestamp, or -1 if none. */
+  private int floorVisionIndex(double timestamp) {
+    for (int offset = visionCount - 1; offset >= 0; offset--) {
+      int index = visionIndex(offset);
+      if (visionTimestamps[index] <= timestamp) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /** Applies a correction to an odometry pose, moving it by the odometry since the correction. */
+  private void compensate(int index, double x, double y, double theta, double[] poseOut) {
+    double cos = Math.cos(replacedTheta[index]);
+    double sin = Math.sin(replacedTheta[index]);
+    double dx = x - replacedX[index];
+    double dy = y - replacedY[index];
+    double relativeX = dx * cos + dy * sin;
+    double relativeY = -dx * sin + dy * cos;
+    double correctedCos = Math.cos(visionTheta[index]);
+    double correctedSin = Math.sin(visionTheta[index]);
+    poseOut[0] = visionX[index] + relativeX * correctedCos - relativeY * correctedSin;
+    poseOut[1] = visionY[index] + relativeX * correctedSin + relativeY * correctedCos;
+    poseOut[2] = visionTheta[index] + MathUtil.angleModulus(theta - replacedTheta[index]);
+  }
+
+  /** Same as {@link Pose2d#exp}, writing x, y and theta to poseOut. */
+  private static void exp(
+      double x, double y, double theta, double dx, double dy, double dtheta, double[] poseOut) {
+    double s;
+    double c;
+    if (Math.abs(dtheta) < 1e-9) {
+      s = 1.0 - dtheta * dtheta / 6.0;
+      c = 0.5 * dtheta;
+    } else {
+      s = Math.sin(dtheta) / dtheta;
+      c = (1.0 - Math.cos(dtheta)) / dtheta;
+    }
+    double localX = dx * s - dy * c;
+    double localY = dx * c + dy * s;
+    double cos = Math.cos(theta);
+    double sin = Math.sin(theta);
+    poseOut[0] = x + localX * cos - localY * sin;
+    poseOut[1] = y + localX * sin + localY * cos;
+    poseOut[2] = theta + dtheta;
+  }
+
+  /** Same as {@link Pose2d#log}, writing dx, dy and dtheta to twistOut. */
+  private static void log(
+      double startX,
+      double startY,
+      double startTheta,
+      double endX,
+      double endY,
+      double endTheta,
+      double[] twistOut) {
+    double cos = Math.cos(startTheta);
+    double sin = Math.sin(startTheta);
+    double dx = endX - startX;
+    double dy = endY - startY;
+    double relativeX = dx * cos + dy * sin;
+    double relativeY = -dx * sin + dy * cos;
+    double dtheta = MathUtil.angleModulus(endTheta - startTheta);
+
+    double halfDtheta = dtheta / 2.0;
+    double cosMinusOne = Math.cos(dtheta) - 1.0;
+    double halfThetaByTanOfHalfDtheta =
+        Math.abs(cosMinusOne) < 1e-9
+            ? 1.0 - 1.0 / 12.0 * dtheta * dtheta
+            : -(halfDtheta * Math.sin(dtheta)) / cosMinusOne;
+    twistOut[0] = relativeX * halfThetaByTanOfHalfDtheta + relativeY * halfDtheta;
+    twistOut[1] = -relativeX * halfDtheta + relativeY * halfThetaByTanOfHalfDtheta;
+    twistOut[2] = dtheta;
+  }
+}
@@ -9,30 +9,85 @@ package frc.robot.subsystems.drive;
 
 import com.revrobotics.REVLibError;
 import com.revrobotics.spark.SparkBase;
-import edu.wpi.first.wpilibj.Notifier;
 import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.Threads;
+import frc.robot.util.LatencyHistogram;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.DoubleSupplier;
+import org.littletonrobotics.junction.Logger;
 
 /**
- * Provides an interface for asynchronously reading high-frequency measurements to a set of queues.
+ * Provides an interface for asynchronously reading high-frequency measurements into a buffer of
+ * odometry frames. Each frame holds a single timestamp plus the value of every registered signal.
  *
- * <p>This version includes an overload for Spark signals, which checks for errors to ensure that
- * all measurements in the sample are valid.
+ * <p>This version includes an overload for Spark signals, which checks for errors after each read.
+ * A failed read only clears that signal's validity bit in the frame, so other devices still
+ * contribute their samples. Generic signals are marked invalid by returning {@link Double#NaN}.
+ * The last error is stored per Spark, so each read and its check hold the Spark object's monitor;
+ * other threads calling a sampled Spark must hold it too, as {@link
+ * frc.robot.util.SparkFaultCounter} does.
+ *
+ * <p>Frames are handed to the main loop through a single-producer/single-consumer ring buffer, so
+ * the sampling thread never blocks on the consumer and keeps an even cadence when the main loop is
+ * slow. Registration is guarded by a separate lock and must finish before {@link #start()}, after
+ * which the signal set is immutable.
+ *
+ * <p>Sampling runs on a dedicated thread rather than a {@link edu.wpi.first.wpilibj.Notifier}, so
+ * it can be given a real-time priority above the main loop. Each tick sleeps until an absolute
+ * deadline on a fixed schedule, so time spent sampling does not accumulate as drift.
+ *
+ * <p>The thread also records how late each tick wakes up and how long it runs, which are logged
+ * periodically by {@link #logTiming()}. Samples that never reach the consumer, either because the
+ * buffer was full or because the read failed, are counted per signal.
  */
 public class SparkOdometryThread {
-  private final List<SparkBase> sparks = new ArrayList<>();
-  private final List<DoubleSupplier> sparkSignals = new ArrayList<>();
-  private final List<DoubleSupplier> genericSignals = new ArrayList<>();
-  private final List<Queue<Double>> sparkQueues = new ArrayList<>();
-  private final List<Queue<Double>> genericQueues = new ArrayList<>();
-  private final List<Queue<Double>> timestampQueues = new ArrayList<>();
+  /**
+   * Number of frames the buffer can hold before new frames are dropped, sized so that a main loop
+   * stall of {@link DriveConstants#odometryMaxStallSecs} loses no samples at the highest rate.
+   */
+  public static final int frameCapacity =
+      (int) Math.ceil(DriveConstants.maxOdometryFrequency * DriveConstants.odometryMaxStallSecs);
+
+  /** Number of calls to {@link #logTiming()} between each timing summary. */
+  private static final int timingLogPeriodCycles = 50;
+
+  // Registration state, guarded by registrationLock
+  private final Object registrationLock = new Object();
+  private final List<String> names = new ArrayList<>();
+  private final List<SparkBase> sparks = new ArrayList<>(); // Null for generic signals
+  private final List<DoubleSupplier> signals = new ArrayList<>();
+
+  // Sampling state, fixed by start() and published through the volatile buffer field
+  private SparkBase[] sampledSparks = new SparkBase[] {};
+  private DoubleSupplier[] sampledSignals = new DoubleSupplier[] {};
+  private double[] signalValues = new double[] {};
+  private volatile OdometryFrameBuffer buffer = null;
+
+  // Consumer state, only touched by the main thread
+  private OdometryFrameBuffer.Frames frames = new OdometryFrameBuffer.Frames(0, 0);
+
+  // Timing instrumentation, written by the sampling thread
+  private final LatencyHistogram schedulingLatency = new LatencyHistogram();
+  private final LatencyHistogram executionTime = new LatencyHistogram();
+  private volatile long periodMicros = Math.round(1e6 / DriveConstants.odometryFrequency);
+  private volatile int queueHighWater = 0;
+  private volatile int droppedFrames = 0;
+  private AtomicIntegerArray droppedSamples = new AtomicIntegerArray(0); // Buffer full, per signal
+  private AtomicIntegerArray failedSamples = new AtomicIntegerArray(0); // Read error, per signal
+  private String[] signalNames = new String[] {};
+  private volatile int overruns = 0;
+  private int timingLogCycles = 0;
+
+  // Thread control
+  private Thread thread = null;
+  private volatile boolean running = false;
+  private volatile boolean realTime = false;
+  private int threadPriority = DriveConstants.odometryThreadPriority;
 
   private static SparkOdometryThread instance = null;
-  private Notifier notifier = new Notifier(this::run);
 
   public static SparkOdometryThread getInstance() {
     if (instance == null) {
@@ -41,86 +96,229 @@ public class SparkOdometryThread {
     return instance;
   }
 
-  private SparkOdometryThread() {
-    notifier.setName("OdometryThread");
-  }
+  private SparkOdometryThread() {}
 
-  public void start() {
-    if (timestampQueues.size() > 0) {
-      notifier.startPeriodic(1.0 / DriveConstants.odometryFrequency);
+  /**
+   * Starts sampling. All signals must be registered before the thread is first started. Calling
+   * this after {@link #stop()} restarts the thread with the same signals and any new priority.
+   */
+  public synchronized void start() {
+    if (thread != null) {
+      return;
     }
+    synchronized (registrationLock) {
+      if (signals.isEmpty()) {
+        return;
+      }
+      if (buffer == null) {
+        initSampling();
+      }
+    }
+    running = true;
+    thread = new Thread(this::loop, "OdometryThread");
+    thread.setDaemon(true);
+    thread.start();
   }
 
-  /** Registers a Spark signal to be read from the thread. */
-  public Queue<Double> registerSignal(SparkBase spark, DoubleSupplier signal) {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
-    Drive.odometryLock.lock();
+  /** Stops sampling and waits for the thread to exit. Sampled frames can still be polled. */
+  public synchronized void stop() {
+    if (thread == null) {
+      return;
+    }
+    running = false;
+    LockSupport.unpark(thread);
     try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  /**
+   * Sets the real-time priority of the sampling thread, applied the next time it is started.
+   *
+   * @param priority Priority from 1 to 99, or 0 to run as a normal thread.
+   */
+  public synchronized void setThreadPriority(int priority) {
+    threadPriority = priority;
+  }
+
+  /**
+   * Changes the sample rate. Takes effect after the current sleep, without restarting the thread.
+   * The devices' status frame rates should be changed to match.
+   */
+  public void setFrequency(double frequencyHz) {
+    periodMicros = Math.round(1e6 / frequencyHz);
+  }
+
+  /** Returns whether the sampling thread is currently running. */
+  public synchronized boolean isRunning() {
+    return thread != null;
+  }
+
+  private void initSampling() {
+    sampledSparks = sparks.toArray(new SparkBase[0]);
+    sampledSignals = signals.toArray(new DoubleSupplier[0]);
+    signalValues = new double[signals.size()];
+    signalNames = names.toArray(new String[0]);
+    droppedSamples = new AtomicIntegerArray(signals.size());
+    failedSamples = new AtomicIntegerArray(signals.size());
+    var newBuffer = new OdometryFrameBuffer(signals.size(), frameCapacity);
+    frames = new OdometryFrameBuffer.Frames(signals.size(), newBuffer.capacity());
+    buffer = newBuffer; // Volatile write publishes the sampling state above
+  }
+
+  /**
+   * Registers a Spark signal to be read from the thread.
+   *
+   * @param name The name used when reporting lost samples for this signal.
+   * @return The index of the signal within each odometry frame.
+   */
+  public int registerSignal(String name, SparkBase spark, DoubleSupplier signal) {
+    return addSignal(name, spark, signal);
+  }
+
+  /**
+   * Registers a generic signal to be read from the thread.
+   *
+   * @param name The name used when reporting lost samples for this signal.
+   * @return The index of the signal within each odometry frame.
+   */
+  public int registerSignal(String name, DoubleSupplier signal) {
+    return addSignal(name, null, signal);
+  }
+
+  private int addSignal(String name, SparkBase spark, DoubleSupplier signal) {
+    synchronized (registrationLock) {
+      if (buffer != null) {
+        throw new IllegalStateException("Odometry signals must be registered before starting.");
+      }
+      if (signals.size() >= OdometryFrameBuffer.maxSignals) {
+        throw new IllegalStateException("Too many odometry signals registered.");
+      }
+      names.add(name);
       sparks.add(spark);
-      sparkSignals.add(signal);
-      sparkQueues.add(queue);
-    } finally {
-      Drive.odometryLock.unlock();
+      signals.add(signal);
+      return signals.size() - 1;
     }
-    return queue;
   }
 
-  /** Registers a generic signal to be read from the thread. */
-  public Queue<Double> registerSignal(DoubleSupplier signal) {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
-    Drive.odometryLock.lock();
-    try {
-      genericSignals.add(signal);
-      genericQueues.add(queue);
-    } finally {
-      Drive.odometryLock.unlock();
+  /**
+   * Moves all frames sampled since the last call into the batch returned by {@link #getFrames()}.
+   * Should be called once per cycle before any IO implementation reads the frames.
+   */
+  public void poll() {
+    OdometryFrameBuffer currentBuffer = buffer;
+    if (currentBuffer != null) {
+      currentBuffer.drainTo(frames);
     }
-    return queue;
   }
 
-  /** Returns a new queue that returns timestamp values for each sample. */
-  public Queue<Double> makeTimestampQueue() {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
-    Drive.odometryLock.lock();
-    try {
-      timestampQueues.add(queue);
-    } finally {
-      Drive.odometryLock.unlock();
+  /** Returns the frames received by the last call to {@link #poll()}. */
+  public OdometryFrameBuffer.Frames getFrames() {
+    return frames;
+  }
+
+  /**
+   * Logs a summary of the sampling thread's timing. Should be called once per cycle from the main
+   * thread; the histograms are only published every {@link #timingLogPeriodCycles} calls.
+   */
+  public void logTiming() {
+    if (++timingLogCycles < timingLogPeriodCycles) {
+      return;
     }
-    return queue;
+    timingLogCycles = 0;
+    schedulingLatency.publish("Odometry/Thread/SchedulingLatency");
+    executionTime.publish("Odometry/Thread/ExecutionTime");
+    Logger.recordOutput("Odometry/Thread/QueueHighWater", queueHighWater);
+    Logger.recordOutput("Odometry/Thread/DroppedFrames", droppedFrames);
+    Logger.recordOutput("Odometry/Thread/FrameCapacity", frames.capacity());
+    Logger.recordOutput("Odometry/Thread/SignalNames", signalNames);
+    Logger.recordOutput("Odometry/Thread/DroppedSamples", toLongArray(droppedSamples));
+    Logger.recordOutput("Odometry/Thread/FailedSamples", toLongArray(failedSamples));
+    Logger.recordOutput("Odometry/Thread/Overruns", overruns);
+    Logger.recordOutput("Odometry/Thread/RealTime", realTime);
+    queueHighWater = 0;
   }
 
-  private void run() {
-    // Save new data to queues
-    Drive.odometryLock.lock();
-    try {
-      // Get sample timestamp
-      double timestamp = RobotController.getFPGATime() / 1e6;
-
-      // Read Spark values, mark invalid in case of error
-      double[] sparkValues = new double[sparkSignals.size()];
-      boolean isValid = true;
-      for (int i = 0; i < sparkSignals.size(); i++) {
-        sparkValues[i] = sparkSignals.get(i).getAsDouble();
-        if (sparks.get(i).getLastError() != REVLibError.kOk) {
-          isValid = false;
-        }
+  private static long[] toLongArray(AtomicIntegerArray counts) {
+    long[] values = new long[counts.length()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = counts.get(i);
+    }
+    return values;
+  }
+
+  private void loop() {
+    realTime = threadPriority > 0 && Threads.setCurrentThreadPriority(true, threadPriority);
+    long deadlineMicros = RobotController.getFPGATime();
+    while (running) {
+      sample(deadlineMicros);
+
+      // Advance to the next deadline, skipping ticks that are already too late to be useful
+      long period = periodMicros;
+      deadlineMicros += period;
+      long nowMicros = RobotController.getFPGATime();
+      if (nowMicros - deadlineMicros >= period) {
+        deadlineMicros = nowMicros;
       }
 
-      // If valid, add values to queues
-      if (isValid) {
-        for (int i = 0; i < sparkSignals.size(); i++) {
-          sparkQueues.get(i).offer(sparkValues[i]);
-        }
-        for (int i = 0; i < genericSignals.size(); i++) {
-          genericQueues.get(i).offer(genericSignals.get(i).getAsDouble());
+      // Sleep until the deadline, parking again if woken early
+      while (running && (nowMicros = RobotController.getFPGATime()) < deadlineMicros) {
+        LockSupport.parkNanos((deadlineMicros - nowMicros) * 1000);
+      }
+    }
+  }
+
+  private void sample(long deadlineMicros) {
+    OdometryFrameBuffer currentBuffer = buffer;
+
+    // Measure how late this tick woke up relative to its deadline
+    long wakeMicros = RobotController.getFPGATime();
+    schedulingLatency.record(Math.max(wakeMicros - deadlineMicros, 0));
+
+    // Get sample timestamp
+    double timestamp = wakeMicros / 1e6;
+
+    // Read all values, mark individual signals invalid in case of error
+    long validMask = 0;
+    for (int i = 0; i < sampledSignals.length; i++) {
+      SparkBase spark = sampledSparks[i];
+      boolean isValid;
+      if (spark != null) {
+        synchronized (spark) {
+          signalValues[i] = sampledSignals[i].getAsDouble();
+          isValid = spark.getLastError() == REVLibError.kOk;
         }
-        for (int i = 0; i < timestampQueues.size(); i++) {
-          timestampQueues.get(i).offer(timestamp);
+      } else {
+        signalValues[i] = sampledSignals[i].getAsDouble();
+        isValid = !Double.isNaN(signalValues[i]);
+      }
+      if (isValid) {
+        validMask |= 1L << i;
+      } else {
+        failedSamples.lazySet(i, failedSamples.get(i) + 1);
+      }
+    }
+
+    // Hand the frame to the consumer unless every read failed
+    if (validMask != 0) {
+      if (!currentBuffer.offer(timestamp, validMask, signalValues)) {
+        droppedFrames++;
+        for (int i = 0; i < sampledSignals.length; i++) {
+          if ((validMask & (1L << i)) != 0) {
+            droppedSamples.lazySet(i, droppedSamples.get(i) + 1);
+          }
         }
       }
-    } finally {
-      Drive.odometryLock.unlock();
+      queueHighWater = Math.max(queueHighWater, currentBuffer.size());
+    }
+
+    long endMicros = RobotController.getFPGATime();
+    executionTime.record(endMicros - wakeMicros);
+    if (endMicros - wakeMicros > periodMicros) {
+      overruns++;
     }
   }
 }
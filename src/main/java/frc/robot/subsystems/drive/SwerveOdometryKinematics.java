@@ -0,0 +1,124 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.geometry.Translation2d;
+
+/**
+ * Primitive version of the forward kinematics used by {@link
+ * edu.wpi.first.math.kinematics.SwerveDriveKinematics#toTwist2d}, for use in high-rate loops that
+ * should not allocate.
+ *
+ * <p>Unlike the WPILib version, the solution can be limited to a subset of the modules and can take
+ * a known heading change from the gyro, so modules that disagree with the rest can be left out.
+ */
+public class SwerveOdometryKinematics {
+  private final int moduleCount;
+  private final double[] moduleX;
+  private final double[] moduleY;
+
+  public SwerveOdometryKinematics(Translation2d[] moduleTranslations) {
+    moduleCount = moduleTranslations.length;
+    moduleX = new double[moduleCount];
+    moduleY = new double[moduleCount];
+    for (int i = 0; i < moduleCount; i++) {
+      moduleX[i] = moduleTranslations[i].getX();
+      moduleY[i] = moduleTranslations[i].getY();
+    }
+  }
+
+  public int getModuleCount() {
+    return moduleCount;
+  }
+
+  /**
+   * Calculates the least-squares robot-relative twist from the included module deltas.
+   *
+   * @param distanceDeltas The change in drive distance of each module in meters.
+   * @param anglesRad The angle of each module in radians.
+   * @param included Which modules to use.
+   * @param knownDeltaTheta The change in heading from the gyro in radians, or NaN to solve for it.
+   * @param twistOut Array of at least three elements, filled with dx, dy (meters) and dtheta
+   *     (radians).
+   * @return Whether enough modules were included to solve for the twist.
+   */
+  public boolean solve(
+      double[] distanceDeltas,
+      double[] anglesRad,
+      boolean[] included,
+      double knownDeltaTheta,
+      double[] twistOut) {
+    // Each module contributes rows [1, 0, -y] and [0, 1, x], so A^T * A is:
+    // [[n, 0, -sum(y)], [0, n, sum(x)], [-sum(y), sum(x), sum(x^2 + y^2)]]
+    int n = 0;
+    double sumX = 0.0;
+    double sumY = 0.0;
+    double sumSq = 0.0;
+    double sumMx = 0.0;
+    double sumMy = 0.0;
+    double sumMoment = 0.0;
+    for (int i = 0; i < moduleCount; i++) {
+      if (!included[i]) {
+        continue;
+      }
+      double mx = distanceDeltas[i] * Math.cos(anglesRad[i]);
+      double my = distanceDeltas[i] * Math.sin(anglesRad[i]);
+      n++;
+      sumX += moduleX[i];
+      sumY += moduleY[i];
+      sumSq += moduleX[i] * moduleX[i] + moduleY[i] * moduleY[i];
+      sumMx += mx;
+      sumMy += my;
+      sumMoment += moduleX[i] * my - moduleY[i] * mx;
+    }
+
+    if (!Double.isNaN(knownDeltaTheta)) {
+      // Only the translation is unknown, so each axis is an average
+      if (n < 1) {
+        return false;
+      }
+      twistOut[0] = (sumMx + knownDeltaTheta * sumY) / n;
+      twistOut[1] = (sumMy - knownDeltaTheta * sumX) / n;
+      twistOut[2] = knownDeltaTheta;
+      return true;
+    }
+
+    // Solve the normal equations with Cramer's rule
+    if (n < 2) {
+      return false;
+    }
+    double a = n;
+    double c = -sumY;
+    double f = sumX;
+    double k = sumSq;
+    double det = a * (a * k - f * f) - c * c * a;
+    if (Math.abs(det) < 1e-12) {
+      return false;
+    }
+    double detX = sumMx * (a * k - f * f) + c * (sumMy * f - a * sumMoment);
+    double detY = a * (sumMy * k - f * sumMoment) + c * (sumMx * f - c * sumMy);
+    double detTheta = a * (a * sumMoment - sumMy * f) - c * a * sumMx;
+    twistOut[0] = detX / det;
+    twistOut[1] = detY / det;
+    twistOut[2] = detTheta / det;
+    return true;
+  }
+
+  /**
+   * Calculates the displacement of one module expected from a robot-relative twist.
+   *
+   * @param module The index of the module.
+   * @param twist The twist from {@link #solve}.
+   * @param displacementOut Array of at least two elements, filled with the x and y displacement of
+   *     the module in meters.
+   */
+  public void toModuleDisplacement(int module, double[] twist, double[] displacementOut) {
+    displacementOut[0] = twist[0] - twist[2] * moduleY[module];
+    displacementOut[1] = twist[1] + twist[2] * moduleX[module];
+  }
+}
@@ -0,0 +1,334 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.math.system.plant.DCMotor;
+import java.util.Arrays;
+
+/**
+ * Limits chassis speed setpoints to what the modules can physically follow in one loop, so sudden
+ * joystick or path changes don't scrub the wheels or spike the drive current.
+ *
+ * <p>Each call moves from the previous setpoint toward the requested speeds by the largest fraction
+ * that keeps every module within three limits: the change in wheel velocity the carpet can provide
+ * through friction, the increase in wheel speed the drive motor can provide at its current speed
+ * and current limit, and the change in wheel direction the turn motor can make. Limiting the whole
+ * chassis by one fraction keeps the modules coordinated, so the robot follows the requested
+ * direction while it catches up to the requested speed.
+ *
+ * <p>The modules can also be locked at fixed angles, e.g. in an X to resist being pushed. A lock
+ * bypasses the limits: the setpoint drops straight to zero and the modules hold the lock angles
+ * until motion is requested again.
+ *
+ * <p>All state is primitive, and the returned module states and chassis speeds are reused between
+ * calls.
+ */
+public class SwerveSetpointGenerator {
+  private static final double epsilon = 1e-6;
+  private static final int steeringIterations = 10;
+
+  private final int moduleCount;
+  private final double[] moduleX;
+  private final double[] moduleY;
+  private final SwerveOdometryKinematics kinematics;
+  private final boolean[] allModules;
+  private final double maxSpeed;
+  private final double maxSteerVelocity;
+  private final DCMotor driveMotor;
+  private final double driveReduction;
+  private final double wheelRadius;
+  private final double driveCurrentLimit;
+  private final double moduleMass;
+  private final double frictionAccel;
+
+  // Previous setpoint
+  private double previousVx = 0.0;
+  private double previousVy = 0.0;
+  private double previousOmega = 0.0;
+  private final double[] previousAnglesRad;
+  private boolean locked = false;
+  private final double[] twist = new double[3];
+
+  private final SwerveModuleState[] moduleStates;
+  private final ChassisSpeeds chassisSpeeds = new ChassisSpeeds();
+
+  /**
+   * Creates a new setpoint generator.
+   *
+   * @param moduleTranslations The location of each module relative to the robot center.
+   * @param maxSpeed The maximum wheel speed in meters per second.
+   * @param maxSteerVelocity The maximum module turn rate in radians per second.
+   * @param driveMotor The drive motor model for one module, before the reduction.
+   * @param driveReduction The reduction from the drive motor to the wheel.
+   * @param wheelRadius The wheel radius in meters.
+   * @param driveCurrentLimit The drive motor current limit in amps.
+   * @param robotMass The mass of the robot in kilograms.
+   * @param wheelCOF The coefficient of friction between the wheels and the carpet.
+   */
+  public SwerveSetpointGenerator(
+      Translation2d[] moduleTranslations,
+      double maxSpeed,
+      double maxSteerVelocity,
+      DCMotor driveMotor,
+      double driveReduction,
+      double wheelRadius,
+      double driveCurrentLimit,
+      double robotMass,
+      double wheelCOF) {
+    moduleCount = moduleTranslations.length;
+    moduleX = new double[moduleCount];
+    moduleY = new double[moduleCount];
+    for (int i = 0; i < moduleCount; i++) {
+      moduleX[i] = moduleTranslations[i].getX();
+      moduleY[i] = moduleTranslations[i].getY();
+    }
+    kinematics = new SwerveOdometryKinematics(moduleTranslations);
+    allModules = new boolean[moduleCount];
+    Arrays.fill(allModules, true);
+    this.maxSpeed = maxSpeed;
+    this.maxSteerVelocity = maxSteerVelocity;
+    this.driveMotor = driveMotor;
+    this.driveReduction = driveReduction;
+    this.wheelRadius = wheelRadius;
+    this.driveCurrentLimit = driveCurrentLimit;
+    moduleMass = robotMass / moduleCount;
+    frictionAccel = wheelCOF * 9.81; // Each wheel carries its share of the weight
+
+    previousAnglesRad = new double[moduleCount];
+    moduleStates = new SwerveModuleState[moduleCount];
+    for (int i = 0; i < moduleCount; i++) {
+      moduleStates[i] = new SwerveModuleState();
+    }
+  }
+
+  /**
+   * Resets the previous setpoint to the measured module states, e.g. after the drive was disabled
+   * or run open loop. A lock is kept, along with its angles.
+   *
+   * @param velocities The measured velocity of each module in meters per second.
+   * @param anglesRad The measured angle of each module in radians.
+   */
+  public void reset(double[] velocities, double[] anglesRad) {
+    if (locked) {
+      return; // Already commanding zero at the lock angles
+    }
+    kinematics.solve(velocities, anglesRad, allModules, Double.NaN, twist);
+    previousVx = twist[0];
+    previousVy = twist[1];
+    previousOmega = twist[2];
+    System.arraycopy(anglesRad, 0, previousAnglesRad, 0, moduleCount);
+  }
+
+  /**
+   * Stops immediately and holds the modules at the specified angles, until a nonzero velocity is
+   * requested. Unlike a limited stop, the angles are held while the robot is still moving.
+   */
+  public void lock(double[] anglesRad) {
+    locked = true;
+    previousVx = 0.0;
+    previousVy = 0.0;
+    previousOmega = 0.0;
+    System.arraycopy(anglesRad, 0, previousAnglesRad, 0, moduleCount);
+  }
+
+  /**
+   * Calculates the next feasible setpoint toward the requested speeds.
+   *
+   * @param speeds The requested robot-relative speeds, before discretization.
+   * @param dt The loop period in seconds.
+   * @return The module states, reused by the next call.
+   */
+  public SwerveModuleState[] generate(ChassisSpeeds speeds, double dt) {
+    // Discretize, then desaturate while keeping the direction of travel
+    discretize(
+        speeds.vxMetersPerSecond, speeds.vyMetersPerSecond, speeds.omegaRadiansPerSecond, dt);
+    double desiredVx = twist[0];
+    double desiredVy = twist[1];
+    double desiredOmega = twist[2];
+    double fastest = 0.0;
+    for (int i = 0; i < moduleCount; i++) {
+      fastest =
+          Math.max(
+              fastest,
+              Math.hypot(
+                  desiredVx - desiredOmega * moduleY[i], desiredVy + desiredOmega * moduleX[i]));
+    }
+    if (fastest > maxSpeed) {
+      double scale = maxSpeed / fastest;
+      desiredVx *= scale;
+      desiredVy *= scale;
+      desiredOmega *= scale;
+    }
+
+    // Hold a lock until motion is requested, then start from rest
+    if (locked) {
+      if (fastest > epsilon) {
+        locked = false;
+      } else {
+        return applyPrevious();
+      }
+    }
+
+    // Find the largest step toward the request that every module can follow
+    double deltaVx = desiredVx - previousVx;
+    double deltaVy = desiredVy - previousVy;
+    double deltaOmega = desiredOmega - previousOmega;
+    double step = 1.0;
+    for (int i = 0; i < moduleCount; i++) {
+      double startX = previousVx - previousOmega * moduleY[i];
+      double startY = previousVy + previousOmega * moduleX[i];
+      double changeX = deltaVx - deltaOmega * moduleY[i];
+      double changeY = deltaVy + deltaOmega * moduleX[i];
+      double change = Math.hypot(changeX, changeY);
+      if (change < epsilon) {
+        continue;
+      }
+      double startSpeed = Math.hypot(startX, startY);
+
+      // Friction limits the total change in wheel velocity
+      step = Math.min(step, frictionAccel * dt / change);
+
+      // The drive motor limits how much faster the wheel can spin
+      double maxSpeedIncrease = getMotorAccel(startSpeed) * dt;
+      step =
+          Math.min(
+              step,
+              maxStepWithinSpeed(
+                  startX, startY, changeX, changeY, startSpeed + maxSpeedIncrease));
+
+      // The turn motor limits how far the wheel direction can change. Modules starting from rest
+      // can turn in place, and cosine scaling in the module keeps them from driving until aligned.
+      if (startSpeed > epsilon) {
+        step = maxStepWithinSteering(startX, startY, changeX, changeY, step, dt);
+      }
+    }
+
+    // Apply the step
+    previousVx += deltaVx * step;
+    previousVy += deltaVy * step;
+    previousOmega += deltaOmega * step;
+    return applyPrevious();
+  }
+
+  /** Returns whether the modules are locked at fixed angles. */
+  public boolean isLocked() {
+    return locked;
+  }
+
+  /** Returns the chassis speeds of the last setpoint, reused by the next call. */
+  public ChassisSpeeds getChassisSpeeds() {
+    return chassisSpeeds;
+  }
+
+  /** Writes the previous setpoint to the reused chassis speeds and module states. */
+  private SwerveModuleState[] applyPrevious() {
+    chassisSpeeds.vxMetersPerSecond = previousVx;
+    chassisSpeeds.vyMetersPerSecond = previousVy;
+    chassisSpeeds.omegaRadiansPerSecond = previousOmega;
+    for (int i = 0; i < moduleCount; i++) {
+      double x = previousVx - previousOmega * moduleY[i];
+      double y = previousVy + previousOmega * moduleX[i];
+      double speed = Math.hypot(x, y);
+      SwerveModuleState state = moduleStates[i];
+      if (speed > epsilon) {
+        previousAnglesRad[i] = Math.atan2(y, x);
+        state.speedMetersPerSecond = speed;
+      } else {
+        state.speedMetersPerSecond = 0.0; // Hold the last angle while stopped
+      }
+      if (state.angle.getRadians() != previousAnglesRad[i]) {
+        state.angle = Rotation2d.fromRadians(previousAnglesRad[i]);
+      }
+    }
+    return moduleStates;
+  }
+
+  /** Returns the acceleration the drive motor can give one module at a wheel speed. */
+  private double getMotorAccel(double wheelSpeed) {
+    double motorSpeed = wheelSpeed / wheelRadius * driveReduction;
+    double current =
+        MathUtil.clamp(
+            driveMotor.getCurrent(motorSpeed, driveMotor.nominalVoltageVolts),
+            0.0,
+            driveCurrentLimit);
+    double force = driveMotor.getTorque(current) * driveReduction / wheelRadius;
+    return force / moduleMass;
+  }
+
+  /** Returns the largest step in [0, 1] that keeps the wheel speed within a limit. */
+  private static double maxStepWithinSpeed(
+      double startX, double startY, double changeX, double changeY, double speedLimit) {
+    // Solve |start + step * change| = speedLimit for the positive root
+    double a = changeX * changeX + changeY * changeY;
+    double b = 2.0 * (startX * changeX + startY * changeY);
+    double c = startX * startX + startY * startY - speedLimit * speedLimit;
+    if (c > 0.0) {
+      return 0.0; // Already faster than the limit, e.g. after a reset while coasting
+    }
+    return Math.min(1.0, (-b + Math.sqrt(b * b - 4.0 * a * c)) / (2.0 * a));
+  }
+
+  /**
+   * Returns the largest step up to maxStep that keeps the change in wheel direction within what
+   * the turn motor can do this loop. Wheels can reverse instead of turning around, so directions
+   * are compared modulo half a turn.
+   */
+  private double maxStepWithinSteering(
+      double startX,
+      double startY,
+      double changeX,
+      double changeY,
+      double maxStep,
+      double dt) {
+    double maxAngleChange = maxSteerVelocity * dt;
+    if (steeringChange(startX, startY, changeX, changeY, maxStep) <= maxAngleChange) {
+      return maxStep;
+    }
+    double low = 0.0;
+    double high = maxStep;
+    for (int i = 0; i < steeringIterations; i++) {
+      double mid = (low + high) / 2.0;
+      if (steeringChange(startX, startY, changeX, changeY, mid) <= maxAngleChange) {
+        low = mid;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static double steeringChange(
+      double startX, double startY, double changeX, double changeY, double step) {
+    double x = startX + changeX * step;
+    double y = startY + changeY * step;
+    if (Math.hypot(x, y) < epsilon) {
+      return 0.0;
+    }
+    double change = MathUtil.angleModulus(Math.atan2(y, x) - Math.atan2(startY, startX));
+    return Math.min(Math.abs(change), Math.PI - Math.abs(change));
+  }
+
+  /** Same as {@link ChassisSpeeds#discretize}, writing the result to the twist array. */
+  private void discretize(double vx, double vy, double omega, double dt) {
+    double dtheta = omega * dt;
+    double halfDtheta = dtheta / 2.0;
+    double cosMinusOne = Math.cos(dtheta) - 1.0;
+    double halfThetaByTanOfHalfDtheta =
+        Math.abs(cosMinusOne) < 1e-9
+            ? 1.0 - 1.0 / 12.0 * dtheta * dtheta
+            : -(halfDtheta * Math.sin(dtheta)) / cosMinusOne;
+    twist[0] = vx * halfThetaByTanOfHalfDtheta + vy * halfDtheta;
+    twist[1] = -vx * halfDtheta + vy * halfThetaByTanOfHalfDtheta;
+    twist[2] = omega;
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Detects modules whose motion disagrees with the rest of the drive, such as a wheel slipping while
+ * being pushed or spinning freely after lifting off the carpet.
+ *
+ * <p>Each odometry sample is solved for the robot twist that best fits the modules, using the gyro
+ * heading change when it is available. The module that disagrees most is left out and the twist is
+ * solved again, until the remaining modules agree or too few are left. Modules that were left out,
+ * or whose sample was missing, have their delta replaced with the motion expected from the twist,
+ * so the pose estimator only sees motion the rest of the drive agrees with.
+ */
+public class WheelSlipFilter {
+  private final SwerveOdometryKinematics kinematics;
+  private final double slipVelocityThreshold;
+  private final int minModules;
+
+  private final boolean[] included;
+  private final double[] twist = new double[3];
+  private final double[] displacement = new double[2];
+  private double lastTimestamp = Double.NaN;
+
+  // Metrics, the per-cycle values are reset on the first sample after they are logged
+  private final double[] maxSlipVelocity;
+  private final boolean[] excludedThisCycle;
+  private final long[] excludedSamples;
+  private boolean logged = false;
+
+  /**
+   * Creates a new slip filter.
+   *
+   * @param kinematics The kinematics of the drive.
+   * @param slipVelocityThreshold The speed in meters per second that a module can differ from the
+   *     fitted twist before it is left out.
+   * @param minModules The fewest modules to keep when fitting the twist.
+   */
+  public WheelSlipFilter(
+      SwerveOdometryKinematics kinematics, double slipVelocityThreshold, int minModules) {
+    this.kinematics = kinematics;
+    this.slipVelocityThreshold = slipVelocityThreshold;
+    this.minModules = minModules;
+
+    int moduleCount = kinematics.getModuleCount();
+    included = new boolean[moduleCount];
+    maxSlipVelocity = new double[moduleCount];
+    excludedThisCycle = new boolean[moduleCount];
+    excludedSamples = new long[moduleCount];
+  }
+
+  /**
+   * Filters one odometry sample, replacing the deltas and angles of modules that were left out.
+   *
+   * @param timestamp The timestamp of the sample in seconds.
+   * @param distanceDeltas The change in drive distance of each module in meters, updated in place.
+   * @param anglesRad The angle of each module in radians, updated in place.
+   * @param valid Whether each module's sample was read successfully.
+   * @param gyroDeltaTheta The change in heading from the gyro in radians, or NaN if unavailable.
+   * @return Whether any twist could be fitted. If false, the sample should be skipped.
+   */
+  public boolean filter(
+      double timestamp,
+      double[] distanceDeltas,
+      double[] anglesRad,
+      boolean[] valid,
+      double gyroDeltaTheta) {
+    if (logged) {
+      resetCycleMetrics();
+    }
+
+    // Allow for jitter and missing samples, but don't let a long gap hide a slip
+    double dt =
+        Double.isNaN(lastTimestamp) ? 0.02 : MathUtil.clamp(timestamp - lastTimestamp, 1e-3, 0.1);
+    lastTimestamp = timestamp;
+    double threshold = slipVelocityThreshold * dt;
+
+    int includedCount = 0;
+    for (int i = 0; i < included.length; i++) {
+      included[i] = valid[i];
+      if (valid[i]) {
+        includedCount++;
+      }
+    }
+
+    // Leave out the worst module until the rest agree
+    while (true) {
+      if (!kinematics.solve(distanceDeltas, anglesRad, included, gyroDeltaTheta, twist)) {
+        return false;
+      }
+      if (includedCount <= minModules) {
+        break;
+      }
+      int worst = -1;
+      double worstResidual = threshold;
+      for (int i = 0; i < included.length; i++) {
+        if (included[i]) {
+          double residual = residual(i, distanceDeltas, anglesRad);
+          if (residual > worstResidual) {
+            worst = i;
+            worstResidual = residual;
+          }
+        }
+      }
+      if (worst < 0) {
+        break;
+      }
+      included[worst] = false;
+      includedCount--;
+    }
+
+    // Record metrics, then replace the modules that were left out
+    for (int i = 0; i < included.length; i++) {
+      if (valid[i]) {
+        maxSlipVelocity[i] =
+            Math.max(maxSlipVelocity[i], residual(i, distanceDeltas, anglesRad) / dt);
+        if (!included[i]) {
+          excludedThisCycle[i] = true;
+          excludedSamples[i]++;
+        }
+      }
+      if (!included[i]) {
+        kinematics.toModuleDisplacement(i, twist, displacement);
+        distanceDeltas[i] = Math.hypot(displacement[0], displacement[1]);
+        if (distanceDeltas[i] > 1e-9) {
+          anglesRad[i] = Math.atan2(displacement[1], displacement[0]);
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Returns the heading change of the last fitted twist in radians. */
+  public double getDeltaTheta() {
+    return twist[2];
+  }
+
+  /**
+   * Logs the slip metrics for the cycle. Copies are logged, since the logger may still be writing
+   * them out while the next cycle's samples update the metrics.
+   */
+  public void logMetrics() {
+    if (logged) {
+      resetCycleMetrics(); // No samples this cycle
+    }
+    Logger.recordOutput("Drive/Slip/MaxSlipVelocity", maxSlipVelocity.clone());
+    Logger.recordOutput("Drive/Slip/Excluded", excludedThisCycle.clone());
+    Logger.recordOutput("Drive/Slip/ExcludedSamples", excludedSamples.clone());
+    logged = true;
+  }
+
+  private void resetCycleMetrics() {
+    for (int i = 0; i < included.length; i++) {
+      maxSlipVelocity[i] = 0.0;
+      excludedThisCycle[i] = false;
+    }
+    logged = false;
+  }
+
+  /** Returns the distance between a module's measured and expected displacement in meters. */
+  private double residual(int module, double[] distanceDeltas, double[] anglesRad) {
+    kinematics.toModuleDisplacement(module, twist, displacement);
+    return Math.hypot(
+        distanceDeltas[module] * Math.cos(anglesRad[module]) - displacement[0],
+        distanceDeltas[module] * Math.sin(anglesRad[module]) - displacement[1]);
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+
+/**
+ * {@link DrivePoseEstimator} backed by the WPILib {@link SwerveDrivePoseEstimator}. Each update
+ * allocates the module positions and gyro angle the WPILib estimator takes.
+ */
+public class WpilibDrivePoseEstimator implements DrivePoseEstimator {
+  private final SwerveDrivePoseEstimator poseEstimator;
+
+  public WpilibDrivePoseEstimator(
+      SwerveDriveKinematics kinematics,
+      Rotation2d gyroAngle,
+      SwerveModulePosition[] modulePositions,
+      Pose2d initialPoseMeters) {
+    poseEstimator =
+        new SwerveDrivePoseEstimator(kinematics, gyroAngle, modulePositions, initialPoseMeters);
+  }
+
+  @Override
+  public void update(
+      double timestampSeconds,
+      double gyroAngleRad,
+      double[] moduleDistancesMeters,
+      double[] moduleAnglesRad) {
+    var modulePositions = new SwerveModulePosition[moduleDistancesMeters.length];
+    for (int i = 0; i < modulePositions.length; i++) {
+      modulePositions[i] =
+          new SwerveModulePosition(
+              moduleDistancesMeters[i], Rotation2d.fromRadians(moduleAnglesRad[i]));
+    }
+    poseEstimator.updateWithTime(
+        timestampSeconds, Rotation2d.fromRadians(gyroAngleRad), modulePositions);
+  }
+
+  @Override
+  public void addVisionMeasurement(
+      Pose2d visionRobotPoseMeters,
+      double timestampSeconds,
+      Matrix<N3, N1> visionMeasurementStdDevs) {
+    poseEstimator.addVisionMeasurement(
+        visionRobotPoseMeters, timestampSeconds, visionMeasurementStdDevs);
+  }
+
+  @Override
+  public void resetPosition(
+      Rotation2d gyroAngle, SwerveModulePosition[] modulePositions, Pose2d poseMeters) {
+    poseEstimator.resetPosition(gyroAngle, modulePositions, poseMeters);
+  }
+
+  @Override
+  public void resetRotation(Rotation2d rotation) {
+    poseEstimator.resetRotation(rotation);
+  }
+
+  @Override
+  public Pose2d getEstimatedPosition() {
+    return poseEstimator.getEstimatedPosition();
+  }
+
+  @Override
+  public void getEstimatedPosition(double[] poseOut) {
+    Pose2d pose = poseEstimator.getEstimatedPosition();
+    poseOut[0] = pose.getX();
+    poseOut[1] = pose.getY();
+    poseOut[2] = pose.getRotation().getRadians();
+  }
+}
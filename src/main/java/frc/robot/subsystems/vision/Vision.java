@@ -0,0 +1,233 @@
+package frc.robot.subsystems.vision;
+
+import static frc.robot.subsystems.vision.VisionConstants.*;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import edu.wpi.first.wpilibj.Alert;
+import edu.wpi.first.wpilibj.Alert.AlertType;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.subsystems.vision.VisionIO.PoseObservation;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Collects pose observations from every camera, rejects outliers, and applies the remaining
+ * measurements to the pose estimator once per loop.
+ *
+ * <p>Cameras capture on their own threads in the IO layer, so this only drains what arrived since
+ * the last cycle. Measurements from all cameras are sorted by timestamp, and measurements close
+ * together in time are fused into one, so the estimator replays its history once per group instead
+ * of once per frame.
+ *
+ * <p>Single-tag measurements far from the odometry pose at capture time are rejected, but that gate
+ * is lifted when no measurement has been accepted for a while, so vision can still recover an
+ * estimate that odometry has carried far off. Multi-tag measurements are never gated this way,
+ * since several tags agreeing on a pose is stronger evidence than odometry.
+ */
+public class Vision extends SubsystemBase {
+  private final VisionConsumer consumer;
+  private final PoseLookup poseLookup;
+  private final VisionIO[] io;
+  private final VisionIOInputsAutoLogged[] inputs;
+  private final Alert[] disconnectedAlerts;
+
+  private final List<Measurement> measurements = new ArrayList<>();
+  private final double[] historyPose = new double[3];
+  private double lastAcceptedTimestamp = Double.NEGATIVE_INFINITY;
+
+  private record Measurement(
+      double timestamp, Pose2d pose, double linearStdDev, double angularStdDev) {}
+
+  /**
+   * Creates a new vision subsystem.
+   *
+   * @param consumer Receives the accepted measurements, e.g. the drive pose estimator.
+   * @param poseLookup Odometry pose history, used to reject measurements far from where the robot
+   *     was at capture time.
+   * @param io One IO implementation per camera.
+   */
+  public Vision(VisionConsumer consumer, PoseLookup poseLookup, VisionIO... io) {
+    this.consumer = consumer;
+    this.poseLookup = poseLookup;
+    this.io = io;
+
+    inputs = new VisionIOInputsAutoLogged[io.length];
+    disconnectedAlerts = new Alert[io.length];
+    for (int i = 0; i < io.length; i++) {
+      inputs[i] = new VisionIOInputsAutoLogged();
+      disconnectedAlerts[i] =
+          new Alert(
+              "Vision camera " + Integer.toString(i) + " is disconnected.", AlertType.kWarning);
+    }
+  }
+
+  @Override
+  public void periodic() {
+    for (int i = 0; i < io.length; i++) {
+      io[i].updateInputs(inputs[i]);
+      Logger.processInputs("Vision/Camera" + Integer.toString(i), inputs[i]);
+    }
+
+    double now = Timer.getTimestamp();
+    boolean historyGateActive = now - lastAcceptedTimestamp <= poseHistoryGateTimeoutSecs;
+    measurements.clear();
+    List<Pose3d> allAccepted = new ArrayList<>();
+    List<Pose3d> allRejected = new ArrayList<>();
+    for (int cameraIndex = 0; cameraIndex < io.length; cameraIndex++) {
+      disconnectedAlerts[cameraIndex].set(!inputs[cameraIndex].connected);
+
+      List<Pose3d> accepted = new ArrayList<>();
+      List<Pose3d> rejected = new ArrayList<>();
+      for (var observation : inputs[cameraIndex].poseObservations) {
+        if (shouldReject(observation, now, historyGateActive)) {
+          rejected.add(observation.pose());
+          continue;
+        }
+        accepted.add(observation.pose());
+
+        // Trust falls off with distance squared and improves with more tags
+        double stdDevFactor =
+            Math.pow(observation.averageTagDistance(), 2.0) / observation.tagCount();
+        measurements.add(
+            new Measurement(
+                observation.timestamp(),
+                observation.pose().toPose2d(),
+                linearStdDevBaseline * stdDevFactor * cameraStdDevFactors[cameraIndex],
+                angularStdDevBaseline * stdDevFactor * cameraStdDevFactors[cameraIndex]));
+      }
+
+      String key = "Vision/Camera" + Integer.toString(cameraIndex);
+      Logger.recordOutput(key + "/RobotPosesAccepted", accepted.toArray(new Pose3d[0]));
+      Logger.recordOutput(key + "/RobotPosesRejected", rejected.toArray(new Pose3d[0]));
+      allAccepted.addAll(accepted);
+      allRejected.addAll(rejected);
+    }
+
+    // The estimator replays odometry from each measurement's timestamp, so apply oldest first and
+    // fuse measurements that are close together
+    measurements.sort(Comparator.comparingDouble(Measurement::timestamp));
+    int applied = 0;
+    int start = 0;
+    while (start < measurements.size()) {
+      int end = start + 1;
+      while (end < measurements.size()
+          && measurements.get(end).timestamp() - measurements.get(start).timestamp()
+              <= fusionWindowSecs) {
+        end++;
+      }
+      applyFused(start, end);
+      applied++;
+      start = end;
+    }
+
+    Logger.recordOutput("Vision/Summary/RobotPosesAccepted", allAccepted.toArray(new Pose3d[0]));
+    Logger.recordOutput("Vision/Summary/RobotPosesRejected", allRejected.toArray(new Pose3d[0]));
+    Logger.recordOutput("Vision/Summary/MeasurementsApplied", applied);
+    Logger.recordOutput("Vision/Summary/HistoryGateActive", historyGateActive);
+    if (applied > 0) {
+      lastAcceptedTimestamp = now;
+    }
+  }
+
+  private boolean shouldReject(
+      PoseObservation observation, double now, boolean historyGateActive) {
+    if (observation.tagCount() == 0
+        || (observation.tagCount() == 1 && observation.ambiguity() > maxAmbiguity)
+        || Math.abs(observation.pose().getZ()) > maxZError
+        || observation.pose().getX() < 0.0
+        || observation.pose().getX() > aprilTagLayout.getFieldLength()
+        || observation.pose().getY() < 0.0
+        || observation.pose().getY() > aprilTagLayout.getFieldWidth()
+        || observation.timestamp() > now
+        || now - observation.timestamp() > maxObservationAgeSecs) {
+      return true;
+    }
+
+    // Reject single-tag measurements that disagree with odometry at capture time
+    if (historyGateActive
+        && observation.tagCount() == 1
+        && poseLookup.getPoseAt(observation.timestamp(), historyPose)) {
+      double dx = observation.pose().getX() - historyPose[0];
+      double dy = observation.pose().getY() - historyPose[1];
+      return Math.hypot(dx, dy) > maxPoseHistoryError;
+    }
+    return false;
+  }
+
+  /**
+   * Applies the measurements in [start, end) as one measurement at the latest timestamp. Each pose
+   * is moved forward by the odometry motion since its capture, then the poses are averaged weighted
+   * by inverse variance.
+   */
+  private void applyFused(int start, int end) {
+    var latest = measurements.get(end - 1);
+    if (end - start == 1) {
+      consumer.accept(
+          latest.pose(),
+          latest.timestamp(),
+          VecBuilder.fill(latest.linearStdDev(), latest.linearStdDev(), latest.angularStdDev()));
+      return;
+    }
+
+    boolean hasLatestOdometry = poseLookup.getPoseAt(latest.timestamp(), historyPose);
+    double latestX = historyPose[0];
+    double latestY = historyPose[1];
+    double latestTheta = historyPose[2];
+
+    double sumLinearWeight = 0.0;
+    double sumAngularWeight = 0.0;
+    double x = 0.0;
+    double y = 0.0;
+    double cos = 0.0;
+    double sin = 0.0;
+    for (int i = start; i < end; i++) {
+      var measurement = measurements.get(i);
+      var pose = measurement.pose();
+      if (hasLatestOdometry && poseLookup.getPoseAt(measurement.timestamp(), historyPose)) {
+        var odometryThen =
+            new Pose2d(historyPose[0], historyPose[1], Rotation2d.fromRadians(historyPose[2]));
+        var odometryLatest = new Pose2d(latestX, latestY, Rotation2d.fromRadians(latestTheta));
+        pose = pose.transformBy(odometryLatest.minus(odometryThen));
+      }
+
+      double linearWeight = 1.0 / (measurement.linearStdDev() * measurement.linearStdDev());
+      double angularWeight = 1.0 / (measurement.angularStdDev() * measurement.angularStdDev());
+      x += pose.getX() * linearWeight;
+      y += pose.getY() * linearWeight;
+      cos += pose.getRotation().getCos() * angularWeight;
+      sin += pose.getRotation().getSin() * angularWeight;
+      sumLinearWeight += linearWeight;
+      sumAngularWeight += angularWeight;
+    }
+
+    double linearStdDev = Math.sqrt(1.0 / sumLinearWeight);
+    double angularStdDev = Math.sqrt(1.0 / sumAngularWeight);
+    consumer.accept(
+        new Pose2d(x / sumLinearWeight, y / sumLinearWeight, new Rotation2d(cos, sin)),
+        latest.timestamp(),
+        VecBuilder.fill(linearStdDev, linearStdDev, angularStdDev));
+  }
+
+  @FunctionalInterface
+  public static interface VisionConsumer {
+    public void accept(
+        Pose2d visionRobotPoseMeters,
+        double timestampSeconds,
+        Matrix<N3, N1> visionMeasurementStdDevs);
+  }
+
+  /** Looks up the odometry pose at a past timestamp. Must be safe to call from any thread. */
+  @FunctionalInterface
+  public static interface PoseLookup {
+    public boolean getPoseAt(double timestampSeconds, double[] poseOut);
+  }
+}
@@ -0,0 +1,58 @@
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.apriltag.AprilTagFields;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.util.Units;
+
+public class VisionConstants {
+  // AprilTag layout
+  public static final AprilTagFieldLayout aprilTagLayout =
+      AprilTagFieldLayout.loadField(AprilTagFields.kDefaultField);
+
+  // Robot to camera transforms
+  public static final Transform3d robotToCamera0 =
+      new Transform3d(
+          Units.inchesToMeters(10.0),
+          Units.inchesToMeters(10.0),
+          Units.inchesToMeters(8.0),
+          new Rotation3d(0.0, Units.degreesToRadians(-20.0), Units.degreesToRadians(-30.0)));
+  public static final Transform3d robotToCamera1 =
+      new Transform3d(
+          Units.inchesToMeters(-10.0),
+          Units.inchesToMeters(-10.0),
+          Units.inchesToMeters(8.0),
+          new Rotation3d(0.0, Units.degreesToRadians(-20.0), Units.degreesToRadians(150.0)));
+
+  // Simulated camera properties
+  public static final double[] simCameraFrequencies = new double[] {30.0, 90.0}; // Hz
+  public static final double simLatencySecs = 0.035;
+  public static final double simHorizontalFovRad = Units.degreesToRadians(70.0);
+  public static final double simMaxTagDistance = 5.0; // Meters
+
+  // Basic filtering thresholds
+  public static final double maxAmbiguity = 0.3;
+  public static final double maxZError = 0.75; // Meters
+  public static final double maxObservationAgeSecs = 1.0; // Estimator keeps 1.5 s of history
+  public static final double maxPoseHistoryError = 1.5; // Meters from the odometry pose at capture
+  // Time without an accepted measurement after which single tags are no longer checked against
+  // odometry, so vision can recover a pose that odometry has lost
+  public static final double poseHistoryGateTimeoutSecs = 2.0;
+
+  // Measurements closer together than this are fused before being applied
+  public static final double fusionWindowSecs = 0.02;
+
+  // Standard deviation baselines, for 1 meter distance and 1 tag
+  // (Adjusted automatically based on distance and # of tags)
+  public static final double linearStdDevBaseline = 0.02; // Meters
+  public static final double angularStdDevBaseline = 0.06; // Radians
+
+  // Standard deviation multipliers for each camera
+  // (Adjust to trust some cameras more than others)
+  public static final double[] cameraStdDevFactors =
+      new double[] {
+        1.0, // Camera 0
+        1.0 // Camera 1
+      };
+}
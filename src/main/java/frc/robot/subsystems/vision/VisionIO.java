@@ -0,0 +1,27 @@
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.math.geometry.Pose3d;
+import org.littletonrobotics.junction.AutoLog;
+
+public interface VisionIO {
+  @AutoLog
+  public static class VisionIOInputs {
+    public boolean connected = false;
+    public PoseObservation[] poseObservations = new PoseObservation[0];
+    public int[] tagIds = new int[0];
+  }
+
+  /** Represents a robot pose sample used for pose estimation. */
+  public static record PoseObservation(
+      double timestamp,
+      Pose3d pose,
+      double ambiguity,
+      int tagCount,
+      double averageTagDistance) {}
+
+  /**
+   * Updates the set of loggable inputs with every observation received since the last call.
+   * Implementations should capture frames asynchronously so this only drains a queue.
+   */
+  public default void updateInputs(VisionIOInputs inputs) {}
+}
@@ -0,0 +1,146 @@
+package frc.robot.subsystems.vision;
+
+import static frc.robot.subsystems.vision.VisionConstants.*;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.wpilibj.RobotController;
+import frc.robot.subsystems.vision.Vision.PoseLookup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulated camera that produces noisy pose observations from the tags in view of the true robot
+ * pose. Frames are produced on a background thread at the camera's frame rate and queued, so
+ * {@link #updateInputs(VisionIOInputs)} only drains what arrived since the last cycle.
+ */
+public class VisionIOSim implements VisionIO {
+  private final Transform3d robotToCamera;
+  private final PoseLookup poseLookup;
+  private final long periodNanos;
+  private final Random random;
+  private final ConcurrentLinkedQueue<Frame> frames = new ConcurrentLinkedQueue<>();
+
+  private record Frame(PoseObservation observation, int[] tagIds) {}
+
+  /**
+   * Creates a new simulated camera and starts its capture thread.
+   *
+   * @param name The name of the camera, used for the thread name.
+   * @param robotToCamera The 3D position of the camera relative to the robot.
+   * @param frequency The frame rate of the camera in Hz.
+   * @param poseLookup Source of the true robot pose.
+   */
+  public VisionIOSim(
+      String name, Transform3d robotToCamera, double frequency, PoseLookup poseLookup) {
+    this.robotToCamera = robotToCamera;
+    this.poseLookup = poseLookup;
+    this.periodNanos = (long) (1e9 / frequency);
+    this.random = new Random(name.hashCode());
+
+    var thread = new Thread(this::run, "VisionSim-" + name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void updateInputs(VisionIOInputs inputs) {
+    inputs.connected = true;
+
+    List<PoseObservation> observations = new ArrayList<>();
+    List<Integer> tagIds = new ArrayList<>();
+    Frame frame;
+    while ((frame = frames.poll()) != null) {
+      observations.add(frame.observation());
+      for (int id : frame.tagIds()) {
+        if (!tagIds.contains(id)) {
+          tagIds.add(id);
+        }
+      }
+    }
+
+    inputs.poseObservations = observations.toArray(new PoseObservation[0]);
+    inputs.tagIds = tagIds.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private void run() {
+    double[] truePose = new double[3];
+    long deadline = System.nanoTime();
+    while (!Thread.currentThread().isInterrupted()) {
+      deadline += periodNanos;
+      LockSupport.parkNanos(deadline - System.nanoTime());
+
+      double timestamp = RobotController.getFPGATime() / 1e6 - simLatencySecs;
+      if (!poseLookup.getPoseAt(timestamp, truePose)) {
+        continue;
+      }
+      Frame frame = capture(timestamp, truePose);
+      if (frame != null) {
+        frames.add(frame);
+      }
+
+      // Drop the backlog if the main loop stopped draining, e.g. while paused in a debugger
+      while (frames.size() > maxQueuedFrames()) {
+        frames.poll();
+      }
+    }
+  }
+
+  private Frame capture(double timestamp, double[] truePose) {
+    var robotPose =
+        new Pose3d(new Pose2d(truePose[0], truePose[1], Rotation2d.fromRadians(truePose[2])));
+    var cameraPose = robotPose.transformBy(robotToCamera);
+
+    // Find the tags in front of the camera, within range and facing it
+    List<Integer> visibleIds = new ArrayList<>();
+    double totalDistance = 0.0;
+    for (var tag : aprilTagLayout.getTags()) {
+      Translation3d inCamera =
+          tag.pose
+              .getTranslation()
+              .minus(cameraPose.getTranslation())
+              .rotateBy(cameraPose.getRotation().unaryMinus());
+      double distance = inCamera.getNorm();
+      double bearing = Math.atan2(inCamera.getY(), inCamera.getX());
+      double tagToCamera =
+          Math.atan2(cameraPose.getY() - tag.pose.getY(), cameraPose.getX() - tag.pose.getX());
+      if (inCamera.getX() > 0.0
+          && distance < simMaxTagDistance
+          && Math.abs(bearing) < simHorizontalFovRad / 2.0
+          && Math.cos(tagToCamera - tag.pose.getRotation().getZ()) > 0.0) {
+        visibleIds.add(tag.ID);
+        totalDistance += distance;
+      }
+    }
+    int tagCount = visibleIds.size();
+    if (tagCount == 0) {
+      return null;
+    }
+
+    // Noise grows with distance and shrinks with more tags, like a real multi-tag solve
+    double averageDistance = totalDistance / tagCount;
+    double scale = averageDistance * averageDistance / tagCount;
+    double ambiguity = tagCount > 1 ? 0.0 : random.nextDouble() * 0.4;
+    var measuredPose =
+        new Pose3d(
+            new Pose2d(
+                truePose[0] + random.nextGaussian() * linearStdDevBaseline * scale,
+                truePose[1] + random.nextGaussian() * linearStdDevBaseline * scale,
+                Rotation2d.fromRadians(
+                    truePose[2] + random.nextGaussian() * angularStdDevBaseline * scale)));
+
+    return new Frame(
+        new PoseObservation(timestamp, measuredPose, ambiguity, tagCount, averageDistance),
+        visibleIds.stream().mapToInt(Integer::intValue).toArray());
+  }
+
+  private long maxQueuedFrames() {
+    return Math.max(1, (long) (maxObservationAgeSecs * 1e9 / periodNanos));
+  }
+}
@@ -0,0 +1,80 @@
+package frc.robot.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Fixed-bucket histogram of durations in microseconds, recorded by one thread and published by
+ * another. Recording never allocates or locks, so it is safe to use from high-rate threads.
+ *
+ * <p>Publishing is done from the main thread through AdvantageKit and reports the samples
+ * recorded since the previous publish, so percentiles reflect recent behavior rather than the
+ * whole match.
+ */
+public class LatencyHistogram {
+  /** Upper bound of each bucket in microseconds. The last bucket holds everything larger. */
+  public static final long[] bucketBoundsMicros = {
+    50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, Long.MAX_VALUE
+  };
+
+  // Written by the recording thread
+  private final AtomicIntegerArray counts = new AtomicIntegerArray(bucketBoundsMicros.length);
+  private volatile long maxMicros = 0;
+
+  // Owned by the publishing thread
+  private final int[] lastCounts = new int[bucketBoundsMicros.length];
+
+  /** Records a duration. Must only be called from a single thread. */
+  public void record(long micros) {
+    int bucket = 0;
+    while (micros > bucketBoundsMicros[bucket]) {
+      bucket++;
+    }
+    counts.lazySet(bucket, counts.get(bucket) + 1);
+    if (micros > maxMicros) {
+      maxMicros = micros;
+    }
+  }
+
+  /**
+   * Logs the samples recorded since the last call under the specified key. Must only be called
+   * from a single thread.
+   */
+  public void publish(String key) {
+    long[] window = new long[bucketBoundsMicros.length];
+    long total = 0;
+    for (int i = 0; i < window.length; i++) {
+      int count = counts.get(i);
+      window[i] = count - lastCounts[i];
+      lastCounts[i] = count;
+      total += window[i];
+    }
+    long max = maxMicros;
+    maxMicros = 0;
+
+    Logger.recordOutput(key + "/Buckets", window);
+    Logger.recordOutput(key + "/Count", total);
+    Logger.recordOutput(key + "/P50Us", percentile(window, total, max, 0.5));
+    Logger.recordOutput(key + "/P99Us", percentile(window, total, max, 0.99));
+    Logger.recordOutput(key + "/MaxUs", max);
+  }
+
+  /**
+   * Returns the upper bound of the bucket containing the given percentile, or the maximum if it
+   * falls in the last bucket.
+   */
+  private static long percentile(long[] window, long total, long max, double fraction) {
+    if (total == 0) {
+      return 0;
+    }
+    long threshold = (long) Math.ceil(total * fraction);
+    long cumulative = 0;
+    for (int i = 0; i < window.length - 1; i++) {
+      cumulative += window[i];
+      if (cumulative >= threshold) {
+        return bucketBoundsMicros[i];
+      }
+    }
+    return max;
+  }
+}
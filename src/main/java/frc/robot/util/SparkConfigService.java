@@ -0,0 +1,228 @@
+package frc.robot.util;
+
+import static frc.robot.util.SparkUtil.tryUntilOk;
+
+import com.revrobotics.spark.SparkBase;
+import com.revrobotics.spark.SparkBase.PersistMode;
+import com.revrobotics.spark.SparkBase.ResetMode;
+import com.revrobotics.spark.SparkFlex;
+import com.revrobotics.spark.SparkMax;
+import com.revrobotics.spark.config.SparkBaseConfig;
+import com.revrobotics.spark.config.SparkBaseConfigAccessor;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Configures Sparks at startup, several at a time, writing flash only when a config changed.
+ *
+ * <p>The hash of the last config persisted to each device is stored on the roboRIO by CAN ID,
+ * together with a fingerprint of the device: its firmware version and a few parameters read back
+ * from it. If both still match, the config is applied without resetting or persisting, which skips
+ * the slow flash write while still guaranteeing the device runs the desired config this boot.
+ * Otherwise the device is reset to safe parameters, configured, and persisted, and the new hash is
+ * stored. The fingerprint is read before configuring, so a swapped, reflashed, or factory reset
+ * controller with the same CAN ID reads back different parameters and is persisted again. Delete
+ * the hash file to force every device to be persisted again.
+ *
+ * <p>Devices are configured on a small pool of worker threads. {@link #awaitCompletion()} is the
+ * barrier that waits for all of them and logs the time spent on each device.
+ */
+public class SparkConfigService {
+  private static final int threads = 4;
+  private static final int maxAttempts = 5;
+  private static final File hashFile =
+      new File(Filesystem.getOperatingDirectory(), "spark-config-hashes.properties");
+
+  private final Properties storedHashes = new Properties();
+  private final List<Job> jobs = new ArrayList<>();
+  private ExecutorService executor = null;
+  private long startNanos = 0;
+
+  private static SparkConfigService instance = null;
+
+  public static SparkConfigService getInstance() {
+    if (instance == null) {
+      instance = new SparkConfigService();
+    }
+    return instance;
+  }
+
+  private SparkConfigService() {
+    if (hashFile.exists()) {
+      try (var input = new FileInputStream(hashFile)) {
+        storedHashes.load(input);
+      } catch (IOException e) {
+        DriverStation.reportWarning("Failed to read Spark config hashes: " + e.getMessage(), false);
+      }
+    }
+  }
+
+  /**
+   * Starts configuring a Spark on a worker thread.
+   *
+   * @param name The name used when logging the device's timing.
+   * @param spark The Spark.
+   * @param config The desired config. Must not be modified after this call.
+   * @param afterConfigure Run on the same worker once the config is applied, or null.
+   * @return A future completed once the config and afterConfigure are done.
+   */
+  public CompletableFuture<Void> configure(
+      String name, SparkBase spark, SparkBaseConfig config, Runnable afterConfigure) {
+    if (executor == null) {
+      var threadCount = new AtomicInteger();
+      executor =
+          Executors.newFixedThreadPool(
+              threads,
+              (runnable) -> {
+                var thread = new Thread(runnable, "SparkConfig-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+              });
+      startNanos = System.nanoTime();
+    }
+
+    var job =
+        new Job(
+            name,
+            spark,
+            config,
+            afterConfigure,
+            Integer.toString(spark.getDeviceId()),
+            Integer.toHexString(config.flatten().hashCode()));
+    job.future = CompletableFuture.runAsync(job::run, executor);
+    jobs.add(job);
+    return job.future;
+  }
+
+  /**
+   * Waits for every device started since the last call to finish configuring, then logs the time
+   * spent on each and stores the hashes of newly persisted configs. Must be called from the main
+   * thread.
+   */
+  public void awaitCompletion() {
+    if (executor == null) {
+      return;
+    }
+
+    boolean hashesChanged = false;
+    for (var job : jobs) {
+      try {
+        job.future.join();
+      } catch (RuntimeException e) {
+        DriverStation.reportError("Failed to configure " + job.name, e.getStackTrace());
+      }
+      String key = "SparkConfig/" + job.name;
+      Logger.recordOutput(key + "/TimeMs", job.timeMs);
+      Logger.recordOutput(key + "/Persisted", job.persisted);
+      Logger.recordOutput(key + "/Ok", job.ok);
+      if (job.persisted && job.ok) {
+        storedHashes.setProperty(job.deviceKey, job.hash + "@" + job.fingerprint);
+        hashesChanged = true;
+      }
+    }
+    Logger.recordOutput("SparkConfig/TotalTimeMs", (System.nanoTime() - startNanos) / 1e6);
+
+    if (hashesChanged) {
+      try (var output = new FileOutputStream(hashFile)) {
+        storedHashes.store(
+            output, "Hashes of the configs last persisted to each Spark and the device, by CAN ID");
+      } catch (IOException e) {
+        DriverStation.reportWarning(
+            "Failed to write Spark config hashes: " + e.getMessage(), false);
+      }
+    }
+
+    executor.shutdown();
+    executor = null;
+    jobs.clear();
+  }
+
+  private class Job {
+    final String name;
+    final SparkBase spark;
+    final SparkBaseConfig config;
+    final Runnable afterConfigure;
+    final String deviceKey;
+    final String hash;
+    CompletableFuture<Void> future;
+
+    // Written by the worker, read after the future completes
+    String fingerprint = "";
+    double timeMs = 0.0;
+    boolean persisted = false;
+    boolean ok = false;
+
+    Job(
+        String name,
+        SparkBase spark,
+        SparkBaseConfig config,
+        Runnable afterConfigure,
+        String deviceKey,
+        String hash) {
+      this.name = name;
+      this.spark = spark;
+      this.config = config;
+      this.afterConfigure = afterConfigure;
+      this.deviceKey = deviceKey;
+      this.hash = hash;
+    }
+
+    void run() {
+      long jobStartNanos = System.nanoTime();
+      fingerprint = readFingerprint();
+      persisted = !(hash + "@" + fingerprint).equals(storedHashes.getProperty(deviceKey));
+      ok =
+          tryUntilOk(
+              spark,
+              maxAttempts,
+              () ->
+                  persisted
+                      ? spark.configure(
+                          config, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters)
+                      : spark.configure(
+                          config,
+                          ResetMode.kNoResetSafeParameters,
+                          PersistMode.kNoPersistParameters));
+      if (persisted && ok) {
+        // What the device will read back on the next boot, once it loads the persisted config
+        fingerprint = readFingerprint();
+      }
+      if (afterConfigure != null) {
+        afterConfigure.run();
+      }
+      timeMs = (System.nanoTime() - jobStartNanos) / 1e6;
+    }
+
+    /**
+     * Reads the firmware version and a few commonly configured parameters from the device. Before
+     * configuring, these are the values the device loaded from flash at power on.
+     */
+    String readFingerprint() {
+      SparkBaseConfigAccessor accessor =
+          spark instanceof SparkFlex flex ? flex.configAccessor : ((SparkMax) spark).configAccessor;
+      return Integer.toHexString(spark.getFirmwareVersion())
+          + "/"
+          + accessor.getIdleMode()
+          + "/"
+          + accessor.getInverted()
+          + "/"
+          + accessor.getSmartCurrentLimit()
+          + "/"
+          + accessor.getVoltageCompensation()
+          + "/"
+          + accessor.encoder.getPositionConversionFactor();
+    }
+  }
+}
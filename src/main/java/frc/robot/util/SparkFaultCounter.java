@@ -0,0 +1,141 @@
+package frc.robot.util;
+
+import com.revrobotics.REVLibError;
+import com.revrobotics.RelativeEncoder;
+import com.revrobotics.spark.SparkBase;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Counts failed reads from one Spark, by signal and by error code, so a flaky device or connector
+ * shows up in telemetry while it is happening.
+ *
+ * <p>Reads go through {@link #read(Signal, double)}, which doesn't allocate. The last error of a
+ * Spark is stored per device, so a read and its error check must not interleave with calls on the
+ * same device from another thread, like the odometry thread's samples. Each read holds the Spark
+ * object's monitor around the pair, and any other thread calling the device does the same. The
+ * counters may be logged from another thread.
+ */
+public class SparkFaultCounter {
+  /** Signals read from a Spark. */
+  public enum Signal {
+    POSITION,
+    VELOCITY,
+    APPLIED_OUTPUT,
+    BUS_VOLTAGE,
+    OUTPUT_CURRENT
+  }
+
+  /** Number of calls to {@link #logMetrics()} between each summary. */
+  private static final int logPeriodCycles = 50;
+
+  private static final Signal[] signals = Signal.values();
+  private static final REVLibError[] errors = REVLibError.values();
+  private static final List<SparkFaultCounter> counters = new ArrayList<>();
+  private static int logCycles = 0;
+
+  private final String name;
+  private final SparkBase spark;
+  private final RelativeEncoder encoder;
+  private final AtomicLong reads = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLongArray failuresBySignal = new AtomicLongArray(signals.length);
+  private final AtomicLongArray failuresByError = new AtomicLongArray(errors.length);
+  private boolean groupOk = true; // Only touched by the reading thread
+  private long lastLoggedFailures = 0; // Only touched by the logging thread
+
+  /**
+   * Creates a new counter.
+   *
+   * @param name The name used when logging the counts.
+   * @param spark The Spark whose reads are checked.
+   */
+  public SparkFaultCounter(String name, SparkBase spark) {
+    this.name = name;
+    this.spark = spark;
+    encoder = spark.getEncoder();
+    counters.add(this);
+  }
+
+  /** Starts a group of reads, whose success is returned by {@link #isGroupOk()}. */
+  public void startGroup() {
+    groupOk = true;
+  }
+
+  /** Returns whether every read since the last call to {@link #startGroup()} succeeded. */
+  public boolean isGroupOk() {
+    return groupOk;
+  }
+
+  /**
+   * Reads a signal from the Spark, counting the error if the read failed. The read and its error
+   * check hold the Spark's monitor, so they see the same call's error.
+   *
+   * @param signal The signal to read. Position and velocity come from the primary encoder.
+   * @param fallback The value to return if the read failed, usually the previous value.
+   * @return The value if the read succeeded, otherwise the fallback.
+   */
+  public double read(Signal signal, double fallback) {
+    double value;
+    REVLibError error;
+    synchronized (spark) {
+      value =
+          switch (signal) {
+            case POSITION -> encoder.getPosition();
+            case VELOCITY -> encoder.getVelocity();
+            case APPLIED_OUTPUT -> spark.getAppliedOutput();
+            case BUS_VOLTAGE -> spark.getBusVoltage();
+            case OUTPUT_CURRENT -> spark.getOutputCurrent();
+          };
+      error = spark.getLastError();
+    }
+    reads.incrementAndGet();
+    if (error == REVLibError.kOk) {
+      return value;
+    }
+    failures.incrementAndGet();
+    failuresBySignal.incrementAndGet(signal.ordinal());
+    failuresByError.incrementAndGet(error.ordinal());
+    groupOk = false;
+    return fallback;
+  }
+
+  /**
+   * Logs the counts of every counter every few cycles, including the failures since the previous
+   * summary. Should be called once per cycle from the main thread.
+   */
+  public static void logMetrics() {
+    if (++logCycles < logPeriodCycles) {
+      return;
+    }
+    logCycles = 0;
+    long totalRecentFailures = 0;
+    for (var counter : counters) {
+      String key = "CAN/Faults/" + counter.name;
+      long failures = counter.failures.get();
+      Logger.recordOutput(key + "/Reads", counter.reads.get());
+      Logger.recordOutput(key + "/Failures", failures);
+      Logger.recordOutput(key + "/RecentFailures", failures - counter.lastLoggedFailures);
+      totalRecentFailures += failures - counter.lastLoggedFailures;
+      counter.lastLoggedFailures = failures;
+
+      // Only log the signals and errors that have failed, to keep the keys readable
+      for (int i = 0; i < signals.length; i++) {
+        long count = counter.failuresBySignal.get(i);
+        if (count > 0) {
+          Logger.recordOutput(key + "/Signals/" + signals[i].name(), count);
+        }
+      }
+      for (int i = 0; i < errors.length; i++) {
+        long count = counter.failuresByError.get(i);
+        if (count > 0) {
+          Logger.recordOutput(key + "/Errors/" + errors[i].name(), count);
+        }
+      }
+    }
+    Logger.recordOutput("CAN/Faults/RecentFailures", totalRecentFailures);
+  }
+}
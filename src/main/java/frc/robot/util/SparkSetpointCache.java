@@ -0,0 +1,109 @@
+package frc.robot.util;
+
+import com.revrobotics.spark.SparkBase.ControlType;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Suppresses setpoints that repeat the last one sent to a Spark, so an idle mechanism holding the
+ * same target doesn't send a control frame every cycle.
+ *
+ * <p>Every command path of a motor should check the same cache, so switching between control types
+ * always sends. A repeated setpoint is still resent once the refresh period passes, and always
+ * after the robot is enabled or disabled, so the Spark never runs on a stale command.
+ */
+public class SparkSetpointCache {
+  /**
+   * Longest time a repeated setpoint is suppressed. WPILib motor safety doesn't watch setpoints
+   * sent through setReference, and the Spark's own CAN timeout only disables it when the roboRIO
+   * heartbeat stops, so the last setpoint is held however long it isn't resent. Setpoint frames
+   * aren't acknowledged, though, so this bounds how long one dropped on the bus can leave the
+   * Spark on the previous command, to three main loop cycles.
+   */
+  private static final double refreshPeriodSecs = 0.06;
+
+  /**
+   * Largest change in setpoint or feedforward treated as a repeat, in whatever units the motor is
+   * commanded in. Well below a meaningful change in duty cycle, volts, or mechanism units.
+   */
+  private static final double tolerance = 1e-3;
+
+  /** Number of calls to {@link #logMetrics()} between each summary. */
+  private static final int logPeriodCycles = 50;
+
+  private static final List<SparkSetpointCache> caches = new ArrayList<>();
+  private static int logCycles = 0;
+
+  private final String name;
+
+  private ControlType lastControlType = null;
+  private double lastSetpoint = Double.NaN;
+  private double lastFeedforward = Double.NaN;
+  private double lastSentTimestamp = Double.NEGATIVE_INFINITY;
+  private boolean lastEnabled = false;
+  private long sentFrames = 0;
+  private long savedFrames = 0;
+
+  /**
+   * Creates a new cache.
+   *
+   * @param name The name used when logging the frames saved.
+   */
+  public SparkSetpointCache(String name) {
+    this.name = name;
+    caches.add(this);
+  }
+
+  /** Returns whether a setpoint without feedforward should be sent. */
+  public boolean shouldSend(ControlType controlType, double setpoint) {
+    return shouldSend(controlType, setpoint, 0.0);
+  }
+
+  /**
+   * Returns whether a setpoint should be sent. If so, it is recorded as the last setpoint sent, so
+   * the caller must send it.
+   */
+  public boolean shouldSend(ControlType controlType, double setpoint, double feedforward) {
+    double timestamp = Timer.getFPGATimestamp();
+    boolean enabled = DriverStation.isEnabled();
+    if (controlType == lastControlType
+        && enabled == lastEnabled
+        && Math.abs(setpoint - lastSetpoint) <= tolerance
+        && Math.abs(feedforward - lastFeedforward) <= tolerance
+        && timestamp - lastSentTimestamp < refreshPeriodSecs) {
+      savedFrames++;
+      return false;
+    }
+    lastControlType = controlType;
+    lastSetpoint = setpoint;
+    lastFeedforward = feedforward;
+    lastSentTimestamp = timestamp;
+    lastEnabled = enabled;
+    sentFrames++;
+    return true;
+  }
+
+  /**
+   * Logs the frames sent and saved by every cache every few cycles. Should be called once per cycle
+   * from the main thread.
+   */
+  public static void logMetrics() {
+    if (++logCycles < logPeriodCycles) {
+      return;
+    }
+    logCycles = 0;
+    long totalSaved = 0;
+    long totalSent = 0;
+    for (var cache : caches) {
+      Logger.recordOutput("CAN/Setpoints/" + cache.name + "/SentFrames", cache.sentFrames);
+      Logger.recordOutput("CAN/Setpoints/" + cache.name + "/SavedFrames", cache.savedFrames);
+      totalSent += cache.sentFrames;
+      totalSaved += cache.savedFrames;
+    }
+    Logger.recordOutput("CAN/Setpoints/SentFrames", totalSent);
+    Logger.recordOutput("CAN/Setpoints/SavedFrames", totalSaved);
+  }
+}
@@ -0,0 +1,273 @@
+package frc.robot.util;
+
+import com.revrobotics.spark.SparkBase;
+import com.revrobotics.spark.SparkBase.PersistMode;
+import com.revrobotics.spark.SparkBase.ResetMode;
+import com.revrobotics.spark.SparkFlex;
+import com.revrobotics.spark.config.SparkBaseConfig;
+import com.revrobotics.spark.config.SparkFlexConfig;
+import com.revrobotics.spark.config.SparkMaxConfig;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Central budget for the CAN status frames sent by every Spark on the robot.
+ *
+ * <p>Devices register with a priority, and their signal periods are set from the tables below for
+ * the current robot mode. Frames nobody needs, like drive telemetry while disabled, then stop
+ * competing with configuration and control traffic. The primary encoder position of odometry
+ * sources follows the odometry rate instead, set through {@link #setOdometryFrequency(double)}.
+ *
+ * <p>Changes are applied together by {@link #periodic()}, so several changes in one cycle cost one
+ * configuration per device. The expected status frame load of every mode is calculated from the
+ * same tables and logged next to the measured bus utilization.
+ */
+public class SparkStatusFrameBudget {
+  /** Robot modes with separate budgets. */
+  public enum RobotMode {
+    DISABLED,
+    AUTONOMOUS,
+    TELEOP
+  }
+
+  /** How much of the budget a device gets. */
+  public enum Priority {
+    /** Feedback used every cycle for control or odometry. */
+    HIGH,
+    /** Mechanisms running closed loop on the Spark, read for display and logging. */
+    NORMAL,
+    /** Devices only read for telemetry. */
+    LOW
+  }
+
+  // Signal periods in ms, indexed by [priority][mode]. Columns are DISABLED, AUTONOMOUS, TELEOP.
+  // Applied output, bus voltage, output current and motor temperature
+  private static final int[][] telemetryPeriodsMs = {
+    {200, 20, 20}, // HIGH
+    {200, 20, 20}, // NORMAL
+    {500, 100, 100} // LOW
+  };
+  // Primary and absolute encoder position and velocity, unless sampled for odometry
+  private static final int[][] encoderPeriodsMs = {
+    {100, 20, 20}, // HIGH
+    {100, 20, 20}, // NORMAL
+    {500, 100, 100} // LOW
+  };
+  private static final int[][] faultPeriodsMs = {
+    {500, 250, 250}, // HIGH
+    {500, 250, 250}, // NORMAL
+    {1000, 500, 500} // LOW
+  };
+
+  /** Time the robot must stay disabled before the disabled budget is applied, in seconds. */
+  private static final double disabledDelaySecs = 3.0; // Skips the gap between auto and teleop
+
+  /** Bits in an extended CAN frame with 8 data bytes, excluding stuff bits. */
+  private static final double bitsPerFrame = 131.0;
+
+  private static final double busBitsPerSecond = 1e6;
+
+  private final List<Device> devices = new ArrayList<>();
+  private RobotMode mode = RobotMode.DISABLED;
+  private double disabledTimestamp = Double.NEGATIVE_INFINITY;
+  private int odometryPeriodMs = 20;
+  private final double[] expectedFramesPerSec = new double[RobotMode.values().length];
+  private boolean expectedLoadStale = true;
+
+  private static SparkStatusFrameBudget instance = null;
+
+  public static SparkStatusFrameBudget getInstance() {
+    if (instance == null) {
+      instance = new SparkStatusFrameBudget();
+    }
+    return instance;
+  }
+
+  private SparkStatusFrameBudget() {}
+
+  /**
+   * Adds a Spark to the budget. Its signal periods are set by the next call to {@link #periodic()},
+   * so it should be registered after any configuration that resets its parameters.
+   *
+   * @param name The name used when logging the device's load.
+   * @param spark The Spark.
+   * @param priority The priority of the device's feedback.
+   * @param odometrySource Whether the primary encoder position is sampled for odometry.
+   * @param usesAbsoluteEncoder Whether the absolute encoder connected to the Spark is read.
+   */
+  public void register(
+      String name,
+      SparkBase spark,
+      Priority priority,
+      boolean odometrySource,
+      boolean usesAbsoluteEncoder) {
+    devices.add(new Device(name, spark, priority, odometrySource, usesAbsoluteEncoder));
+    expectedLoadStale = true;
+  }
+
+  /** Sets the rate of the primary encoder position frames of odometry sources. */
+  public void setOdometryFrequency(double frequencyHz) {
+    int periodMs = (int) (1000.0 / frequencyHz);
+    if (periodMs == odometryPeriodMs) {
+      return;
+    }
+    odometryPeriodMs = periodMs;
+    for (var device : devices) {
+      device.pending |= device.odometrySource;
+    }
+    expectedLoadStale = true;
+  }
+
+  /**
+   * Follows robot mode changes and applies pending signal periods. Should be called once per cycle
+   * from the main thread.
+   */
+  public void periodic() {
+    // Find the mode, holding the enabled budget through short disables
+    double timestamp = Timer.getFPGATimestamp();
+    RobotMode newMode;
+    if (DriverStation.isDisabled()) {
+      if (!Double.isFinite(disabledTimestamp)) {
+        disabledTimestamp = timestamp;
+      }
+      newMode = timestamp - disabledTimestamp >= disabledDelaySecs ? RobotMode.DISABLED : mode;
+    } else {
+      disabledTimestamp = Double.NEGATIVE_INFINITY;
+      newMode = DriverStation.isAutonomous() ? RobotMode.AUTONOMOUS : RobotMode.TELEOP;
+    }
+    if (newMode != mode) {
+      mode = newMode;
+      for (var device : devices) {
+        device.pending = true;
+      }
+    }
+
+    // Apply pending changes
+    for (var device : devices) {
+      if (device.pending) {
+        apply(device);
+        device.pending = false;
+      }
+    }
+
+    // Log the expected load
+    if (expectedLoadStale) {
+      for (var loggedMode : RobotMode.values()) {
+        double framesPerSec = 0.0;
+        for (var device : devices) {
+          double deviceFramesPerSec = getFramesPerSec(device, loggedMode);
+          framesPerSec += deviceFramesPerSec;
+          if (loggedMode == RobotMode.TELEOP) {
+            Logger.recordOutput(
+                "CAN/StatusFrames/TeleopFramesPerSec/" + device.name, deviceFramesPerSec);
+          }
+        }
+        expectedFramesPerSec[loggedMode.ordinal()] = framesPerSec;
+        Logger.recordOutput(
+            "CAN/StatusFrames/ExpectedUtilization/" + loggedMode.name(),
+            framesPerSec * bitsPerFrame / busBitsPerSecond);
+      }
+      expectedLoadStale = false;
+    }
+    Logger.recordOutput("CAN/StatusFrames/Mode", mode.name());
+    Logger.recordOutput(
+        "CAN/StatusFrames/ExpectedFramesPerSec", expectedFramesPerSec[mode.ordinal()]);
+    Logger.recordOutput(
+        "CAN/StatusFrames/MeasuredUtilization",
+        RobotController.getCANStatus().percentBusUtilization);
+  }
+
+  /** Returns the mode whose budget is currently applied. */
+  public RobotMode getMode() {
+    return mode;
+  }
+
+  /**
+   * Returns the status frames per second expected from all registered devices in a mode, at the
+   * current odometry rate.
+   */
+  public double getExpectedFramesPerSec(RobotMode mode) {
+    double framesPerSec = 0.0;
+    for (var device : devices) {
+      framesPerSec += getFramesPerSec(device, mode);
+    }
+    return framesPerSec;
+  }
+
+  private void apply(Device device) {
+    int priority = device.priority.ordinal();
+    int telemetryPeriodMs = telemetryPeriodsMs[priority][mode.ordinal()];
+    int encoderPeriodMs = encoderPeriodsMs[priority][mode.ordinal()];
+    SparkBaseConfig config =
+        device.spark instanceof SparkFlex ? new SparkFlexConfig() : new SparkMaxConfig();
+    config
+        .signals
+        .appliedOutputPeriodMs(telemetryPeriodMs)
+        .busVoltagePeriodMs(telemetryPeriodMs)
+        .outputCurrentPeriodMs(telemetryPeriodMs)
+        .motorTemperaturePeriodMs(telemetryPeriodMs)
+        .faultsPeriodMs(faultPeriodsMs[priority][mode.ordinal()])
+        .primaryEncoderVelocityAlwaysOn(true)
+        .primaryEncoderVelocityPeriodMs(encoderPeriodMs)
+        .primaryEncoderPositionAlwaysOn(true)
+        .primaryEncoderPositionPeriodMs(
+            device.odometrySource ? odometryPeriodMs : encoderPeriodMs);
+    if (device.usesAbsoluteEncoder) {
+      config
+          .signals
+          .absoluteEncoderPositionAlwaysOn(true)
+          .absoluteEncoderPositionPeriodMs(encoderPeriodMs);
+    }
+    synchronized (device.spark) { // Keeps the odometry thread from seeing this call's error
+      device.spark.configureAsync(
+          config, ResetMode.kNoResetSafeParameters, PersistMode.kNoPersistParameters);
+    }
+  }
+
+  /**
+   * Returns the status frames per second a device sends in a mode. Applied output, voltage, current
+   * and temperature share one frame, faults another, and the primary encoder position and velocity
+   * share a third, which is sent at the faster of their rates. A read absolute encoder adds a
+   * fourth.
+   */
+  private double getFramesPerSec(Device device, RobotMode mode) {
+    int priority = device.priority.ordinal();
+    int encoderPeriodMs = encoderPeriodsMs[priority][mode.ordinal()];
+    int primaryEncoderPeriodMs =
+        device.odometrySource ? Math.min(odometryPeriodMs, encoderPeriodMs) : encoderPeriodMs;
+    double framesPerSec =
+        1000.0 / telemetryPeriodsMs[priority][mode.ordinal()]
+            + 1000.0 / faultPeriodsMs[priority][mode.ordinal()]
+            + 1000.0 / primaryEncoderPeriodMs;
+    if (device.usesAbsoluteEncoder) {
+      framesPerSec += 1000.0 / encoderPeriodMs;
+    }
+    return framesPerSec;
+  }
+
+  private static class Device {
+    final String name;
+    final SparkBase spark;
+    final Priority priority;
+    final boolean odometrySource;
+    final boolean usesAbsoluteEncoder;
+    boolean pending = true;
+
+    Device(
+        String name,
+        SparkBase spark,
+        Priority priority,
+        boolean odometrySource,
+        boolean usesAbsoluteEncoder) {
+      this.name = name;
+      this.spark = spark;
+      this.priority = priority;
+      this.odometrySource = odometrySource;
+      this.usesAbsoluteEncoder = usesAbsoluteEncoder;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.sun.management.ThreadMXBean;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import java.lang.management.ManagementFactory;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the odometry path Drive runs for each sample doesn't allocate. Runs the same {@link
+ * OdometryIntegrator} as Drive on modules with stub IO, comparing cycles of one sample with cycles
+ * of many, so allocations made once per cycle (such as logging) cancel out.
+ */
+class OdometryAllocationTest {
+  private static final int cycles = 2000;
+  private static final int samplesPerCycle = 6;
+  private static final double dt = 0.004;
+
+  private final Translation2d[] moduleTranslations = {
+    new Translation2d(0.28, 0.28),
+    new Translation2d(0.28, -0.28),
+    new Translation2d(-0.28, 0.28),
+    new Translation2d(-0.28, -0.28)
+  };
+
+  // Samples for the current cycle, shared by every stub module and the gyro
+  private double[] sampleTimestamps = new double[] {};
+  private Rotation2d[] yawPositions = new Rotation2d[] {};
+  private boolean[] sampleValid = new boolean[] {};
+  private double timestamp = 0.0;
+
+  private final Module[] modules = new Module[4];
+  private final GyroIO.GyroIOInputs gyroInputs = new GyroIO.GyroIOInputs();
+  private final OdometryIntegrator integrator;
+
+  OdometryAllocationTest() {
+    for (int i = 0; i < 4; i++) {
+      modules[i] = new Module(new StubModuleIO(i), i);
+    }
+    gyroInputs.connected = true;
+
+    // The WPILib estimator allocates by design, so the primitive one is used
+    var positions = new SwerveModulePosition[4];
+    for (int i = 0; i < 4; i++) {
+      positions[i] = new SwerveModulePosition();
+    }
+    integrator =
+        new OdometryIntegrator(
+            new SwerveOdometryKinematics(moduleTranslations),
+            new PrimitiveDrivePoseEstimator(
+                moduleTranslations, 1.0 / dt, Rotation2d.kZero, positions, Pose2d.kZero),
+            new PoseHistory(512),
+            new double[4],
+            new double[4],
+            null);
+  }
+
+  @Test
+  void perSampleOdometryDoesNotAllocate() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+    var threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+
+    long singleSampleBytes = measureCycles(threadBean, 1);
+    long multiSampleBytes = measureCycles(threadBean, samplesPerCycle);
+
+    int extraSamples = cycles * (samplesPerCycle - 1);
+    double bytesPerSample = (double) (multiSampleBytes - singleSampleBytes) / extraSamples;
+    assertTrue(bytesPerSample < 1.0, "Allocated " + bytesPerSample + " bytes per odometry sample");
+  }
+
+  /** Runs cycles of the given number of samples to warm up, then again to measure them. */
+  private long measureCycles(ThreadMXBean threadBean, int sampleCount) {
+    sampleTimestamps = new double[sampleCount];
+    yawPositions = new Rotation2d[sampleCount];
+    sampleValid = new boolean[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      yawPositions[i] = Rotation2d.fromRadians(0.01 * i);
+      sampleValid[i] = true;
+    }
+    gyroInputs.odometryYawTimestamps = sampleTimestamps;
+    gyroInputs.odometryYawPositions = yawPositions;
+    gyroInputs.odometryYawValid = sampleValid;
+
+    runCycles();
+    long threadId = Thread.currentThread().getId();
+    long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+    runCycles();
+    return threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+  }
+
+  private void runCycles() {
+    for (int cycle = 0; cycle < cycles; cycle++) {
+      for (int i = 0; i < sampleTimestamps.length; i++) {
+        timestamp += dt;
+        sampleTimestamps[i] = timestamp;
+      }
+      for (var module : modules) {
+        module.periodic();
+      }
+      integrator.integrate(modules, gyroInputs);
+    }
+  }
+
+  /** Module IO reporting the current cycle's samples, reusing its arrays between cycles. */
+  private class StubModuleIO implements ModuleIO {
+    private final int index;
+    private double[] drivePositionsRad = new double[] {};
+    private double[] turnPositionsRad = new double[] {};
+
+    StubModuleIO(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public void updateInputs(ModuleIOInputs inputs) {
+      int sampleCount = sampleTimestamps.length;
+      if (drivePositionsRad.length != sampleCount) {
+        drivePositionsRad = new double[sampleCount];
+        turnPositionsRad = new double[sampleCount];
+      }
+      for (int i = 0; i < sampleCount; i++) {
+        drivePositionsRad[i] = sampleTimestamps[i] * (20.0 + index);
+        turnPositionsRad[i] = 0.2 * index + 0.1 * Math.sin(sampleTimestamps[i]);
+      }
+      inputs.driveConnected = true;
+      inputs.turnConnected = true;
+      inputs.odometryTimestamps = sampleTimestamps;
+      inputs.odometryDrivePositionsRad = drivePositionsRad;
+      inputs.odometryTurnPositionsRad = turnPositionsRad;
+      inputs.odometryValid = sampleValid;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.sun.management.ThreadMXBean;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the time and allocation of {@link PrimitiveDrivePoseEstimator} and {@link
+ * WpilibDrivePoseEstimator} on the same synthetic trace, with odometry at the highest odometry rate
+ * and a vision measurement every few samples. The numbers are printed for comparison, and the test
+ * fails if the primitive estimator allocates.
+ */
+class PoseEstimatorBenchmarkTest {
+  private static final int samples = 20_000;
+  private static final int visionPeriodSamples = 5;
+  private static final double dt = 0.004;
+  private static final double visionLatencySecs = 0.03;
+
+  private final Translation2d[] moduleTranslations = {
+    new Translation2d(0.28, 0.28),
+    new Translation2d(0.28, -0.28),
+    new Translation2d(-0.28, 0.28),
+    new Translation2d(-0.28, -0.28)
+  };
+  private final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(moduleTranslations);
+
+  // Trace, generated up front so generating it isn't measured
+  private final double[] timestamps = new double[samples];
+  private final double[] gyroRad = new double[samples];
+  private final double[][] distances = new double[samples][4];
+  private final double[][] anglesRad = new double[samples][4];
+  private final Pose2d[] visionPoses = new Pose2d[samples];
+  private final Matrix<N3, N1> visionStdDevs = VecBuilder.fill(0.5, 0.5, 0.9);
+
+  private record Result(
+      double updateMicros, double updateBytes, double visionMicros, double visionBytes) {}
+
+  @BeforeEach
+  void generateTrace() {
+    // Vision sees the robot slightly offset from odometry, so each measurement moves the estimate
+    var truth = new Pose2d(0.2, -0.1, Rotation2d.fromRadians(0.05));
+    double[] distance = new double[4];
+    double gyro = 0.0;
+    for (int i = 0; i < samples; i++) {
+      double timestamp = (i + 1) * dt;
+      var speeds =
+          new ChassisSpeeds(
+              1.5 * Math.cos(0.7 * timestamp),
+              0.8 * Math.sin(0.4 * timestamp),
+              1.2 * Math.sin(0.5 * timestamp));
+      SwerveModuleState[] states = kinematics.toSwerveModuleStates(speeds);
+      for (int module = 0; module < 4; module++) {
+        distance[module] += states[module].speedMetersPerSecond * dt;
+        distances[i][module] = distance[module];
+        anglesRad[i][module] = states[module].angle.getRadians();
+      }
+      gyro += speeds.omegaRadiansPerSecond * dt;
+      truth =
+          truth.exp(
+              new Twist2d(
+                  speeds.vxMetersPerSecond * dt,
+                  speeds.vyMetersPerSecond * dt,
+                  speeds.omegaRadiansPerSecond * dt));
+      timestamps[i] = timestamp;
+      gyroRad[i] = gyro;
+      visionPoses[i] = truth.plus(new Transform2d(0.01, -0.01, Rotation2d.kZero));
+    }
+  }
+
+  @Test
+  void compareEstimators() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+    var threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+
+    Result wpilib =
+        measure(
+            threadBean,
+            () ->
+                new WpilibDrivePoseEstimator(
+                    kinematics, Rotation2d.kZero, zeroPositions(), Pose2d.kZero));
+    Result primitive =
+        measure(
+            threadBean,
+            () ->
+                new PrimitiveDrivePoseEstimator(
+                    moduleTranslations, 1.0 / dt, Rotation2d.kZero, zeroPositions(), Pose2d.kZero));
+    print("WPILib", wpilib);
+    print("Primitive", primitive);
+
+    assertTrue(primitive.updateBytes() < 1.0, "Primitive update allocated");
+    assertTrue(primitive.visionBytes() < 1.0, "Primitive vision measurement allocated");
+  }
+
+  /** Runs the trace once to warm up, then again on a new estimator to measure it. */
+  private Result measure(ThreadMXBean threadBean, Supplier<DrivePoseEstimator> factory) {
+    run(threadBean, factory.get());
+    return run(threadBean, factory.get());
+  }
+
+  private Result run(ThreadMXBean threadBean, DrivePoseEstimator estimator) {
+    long threadId = Thread.currentThread().getId();
+    long updateNanos = 0;
+    long updateBytes = 0;
+    long visionNanos = 0;
+    long visionBytes = 0;
+    int visionCount = 0;
+    for (int i = 0; i < samples; i++) {
+      long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+      long startNanos = System.nanoTime();
+      estimator.update(timestamps[i], gyroRad[i], distances[i], anglesRad[i]);
+      long endNanos = System.nanoTime();
+      updateBytes += threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+      updateNanos += endNanos - startNanos;
+
+      if (i % visionPeriodSamples == visionPeriodSamples - 1) {
+        int visionSample = Math.max(i - (int) Math.round(visionLatencySecs / dt), 0);
+        startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        startNanos = System.nanoTime();
+        estimator.addVisionMeasurement(
+            visionPoses[visionSample], timestamps[visionSample], visionStdDevs);
+        endNanos = System.nanoTime();
+        visionBytes += threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+        visionNanos += endNanos - startNanos;
+        visionCount++;
+      }
+    }
+    return new Result(
+        updateNanos / 1e3 / samples,
+        (double) updateBytes / samples,
+        visionNanos / 1e3 / visionCount,
+        (double) visionBytes / visionCount);
+  }
+
+  private static SwerveModulePosition[] zeroPositions() {
+    var positions = new SwerveModulePosition[4];
+    for (int i = 0; i < 4; i++) {
+      positions[i] = new SwerveModulePosition();
+    }
+    return positions;
+  }
+
+  private static void print(String name, Result result) {
+    System.out.printf(
+        "%s estimator: update %.2f us, %.1f B; vision %.2f us, %.1f B%n",
+        name,
+        result.updateMicros(),
+        result.updateBytes(),
+        result.visionMicros(),
+        result.visionBytes());
+  }
+}
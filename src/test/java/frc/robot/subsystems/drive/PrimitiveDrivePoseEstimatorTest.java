@@ -0,0 +1,132 @@
+// Copyright (c) 2021-2025 Littleton Robotics
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by a BSD
+// license that can be found in the LICENSE file
+// at the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PrimitiveDrivePoseEstimatorTest {
+  private static final double translationTolerance = 1e-3;
+  private static final double rotationTolerance = 1e-3;
+  private static final double dt = 0.01;
+  private static final int steps = 1000;
+
+  private final Translation2d[] moduleTranslations = {
+    new Translation2d(0.28, 0.28),
+    new Translation2d(0.28, -0.28),
+    new Translation2d(-0.28, 0.28),
+    new Translation2d(-0.28, -0.28)
+  };
+  private final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(moduleTranslations);
+
+  @Test
+  void matchesWpilibWithOdometryOnly() {
+    runComparison(0);
+  }
+
+  @Test
+  void matchesWpilibWithVision() {
+    runComparison(5);
+  }
+
+  /**
+   * Drives both estimators along the same synthetic path and checks they agree after every sample.
+   *
+   * @param visionPeriodSteps Steps between vision measurements, or 0 for none.
+   */
+  private void runComparison(int visionPeriodSteps) {
+    var random = new Random(3494);
+    double[] distances = new double[4];
+    double[] anglesRad = new double[4];
+    var positions = new SwerveModulePosition[4];
+    for (int i = 0; i < 4; i++) {
+      positions[i] = new SwerveModulePosition();
+    }
+    double gyroRad = 0.3;
+    var initialPose = new Pose2d(1.0, 2.0, Rotation2d.fromRadians(-0.5));
+
+    var expected =
+        new SwerveDrivePoseEstimator(
+            kinematics, Rotation2d.fromRadians(gyroRad), positions, initialPose);
+    var actual =
+        new PrimitiveDrivePoseEstimator(
+            moduleTranslations, 1.0 / dt, Rotation2d.fromRadians(gyroRad), positions, initialPose);
+
+    // Ground truth poses by step, offset from odometry so vision has something to correct
+    var truth = new Pose2d[steps + 1];
+    truth[0] = new Pose2d(1.2, 1.9, Rotation2d.fromRadians(-0.45));
+
+    for (int step = 1; step <= steps; step++) {
+      double timestamp = step * dt;
+      var speeds =
+          new ChassisSpeeds(
+              1.5 * Math.cos(0.7 * timestamp),
+              0.8 * Math.sin(0.4 * timestamp),
+              1.2 * Math.sin(0.5 * timestamp));
+      SwerveModuleState[] states = kinematics.toSwerveModuleStates(speeds);
+      for (int i = 0; i < 4; i++) {
+        distances[i] += states[i].speedMetersPerSecond * dt;
+        anglesRad[i] = states[i].angle.getRadians();
+        positions[i] = new SwerveModulePosition(distances[i], states[i].angle);
+      }
+      gyroRad += speeds.omegaRadiansPerSecond * dt;
+      truth[step] =
+          truth[step - 1].exp(
+              new Twist2d(
+                  speeds.vxMetersPerSecond * dt,
+                  speeds.vyMetersPerSecond * dt,
+                  speeds.omegaRadiansPerSecond * dt));
+
+      expected.updateWithTime(timestamp, Rotation2d.fromRadians(gyroRad), positions);
+      actual.update(timestamp, gyroRad, distances, anglesRad);
+
+      if (visionPeriodSteps > 0 && step % visionPeriodSteps == 0 && step > 4) {
+        // Measurement between samples, a few cycles old, with some noise
+        double visionTimestamp = timestamp - 3.5 * dt;
+        var visionPose =
+            truth[step - 4].plus(
+                new Transform2d(
+                    random.nextGaussian() * 0.05,
+                    random.nextGaussian() * 0.05,
+                    Rotation2d.fromRadians(random.nextGaussian() * 0.02)));
+        var stdDevs = VecBuilder.fill(0.3 + random.nextDouble(), 0.3 + random.nextDouble(), 0.9);
+        expected.addVisionMeasurement(visionPose, visionTimestamp, stdDevs);
+        actual.addVisionMeasurement(visionPose, visionTimestamp, stdDevs);
+      }
+
+      assertPoseEquals(expected.getEstimatedPosition(), actual, step);
+    }
+  }
+
+  private static void assertPoseEquals(
+      Pose2d expected, PrimitiveDrivePoseEstimator estimator, int step) {
+    double[] pose = new double[3];
+    estimator.getEstimatedPosition(pose);
+    assertEquals(expected.getX(), pose[0], translationTolerance, "x at step " + step);
+    assertEquals(expected.getY(), pose[1], translationTolerance, "y at step " + step);
+    assertEquals(
+        0.0,
+        MathUtil.angleModulus(expected.getRotation().getRadians() - pose[2]),
+        rotationTolerance,
+        "theta at step " + step);
+  }
+}